@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the allocation profiler; the arguments are the usual JMH command line
+ * options, for example a benchmark name pattern such as {@code MultipartBenchmark}
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            options.include(BenchmarkMain.class.getPackageName() + ".*Benchmark");
+        }
+        options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server the benchmarks run against, so that they measure the client and not a network
+ * <ul>
+ *     <li>{@code /get} answers a short text body</li>
+ *     <li>{@code /echo} reads the request body and answers its size</li>
+ *     <li>{@code /bytes?size=N} answers a body of {@code N} bytes</li>
+ * </ul>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class LocalHttpServer implements AutoCloseable {
+    private static final byte[] GET_BODY = "{\"status\":\"ok\"}".getBytes();
+    private static final byte[] TEXT_CHUNK = textChunk();
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        server.setExecutor(executor);
+        server.createContext("/get", exchange -> respond(exchange, GET_BODY));
+        server.createContext("/echo", exchange -> {
+            long size = exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            respond(exchange, Long.toString(size).getBytes());
+        });
+        server.createContext("/bytes", exchange -> {
+            String query = exchange.getRequestURI().getQuery();
+            int size = Integer.parseInt(query.substring(query.indexOf('=') + 1));
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(HttpURLRequest.HTTP_OK, size);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                for (int i = 0; i < size; i += TEXT_CHUNK.length) {
+                    outputStream.write(TEXT_CHUNK, 0, Math.min(TEXT_CHUNK.length, size - i));
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return 8 KB of text made of 80 characters lines
+     */
+    private static byte[] textChunk() {
+        byte[] chunk = new byte[8192];
+        Arrays.fill(chunk, (byte) 'a');
+        for (int i = 79; i < chunk.length; i += 80) chunk[i] = '\n';
+        return chunk;
+    }
+
+    String url(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(HttpURLRequest.HTTP_OK, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
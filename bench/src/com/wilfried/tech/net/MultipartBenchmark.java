@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link HttpURLRequest#send(HttpURLRequestData)} uploads for several field counts and file sizes
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultipartBenchmark {
+    @Param({"1", "32"})
+    public int fieldCount;
+
+    @Param({"0", "1024", "1048576", "16777216"})
+    public int fileSize;
+
+    private LocalHttpServer server;
+    private HttpURLClient client;
+    private String url;
+    private byte[] file;
+    private Path path;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        client = new HttpURLClient();
+        url = server.url("/echo");
+        file = new byte[fileSize];
+        path = Files.write(Files.createTempFile("upload", ".bin"), file);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public int upload() throws IOException {
+        HttpURLRequestData data = new HttpURLRequestData();
+        for (int i = 0; i < fieldCount; i++) {
+            data.add("field" + i, "value of the field number " + i);
+        }
+        if (fileSize > 0) {
+            data.addFile("file", "file.bin", new ByteArrayInputStream(file), file.length);
+        }
+        HttpURLRequest request = client.newRequest();
+        request.open("POST", url);
+        return request.send(data).getResponseCode();
+    }
+
+    @Benchmark
+    public int uploadPath() throws IOException {
+        HttpURLRequestData data = new HttpURLRequestData();
+        for (int i = 0; i < fieldCount; i++) {
+            data.add("field" + i, "value of the field number " + i);
+        }
+        if (fileSize > 0) {
+            data.addFile("file", path);
+        }
+        HttpURLRequest request = client.newRequest();
+        request.open("POST", url);
+        return request.send(data).getResponseCode();
+    }
+}
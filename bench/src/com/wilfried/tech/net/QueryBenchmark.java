@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of opening a request, directly or from a {@link HttpURLRequestTemplate}, and appending form fields to its query string
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"1", "8", "64"})
+    public int fieldCount;
+
+    private final HashMap<String, String> fields = new HashMap<>();
+    private HttpURLRequestTemplate template;
+
+    @Setup
+    public void setUp() throws IOException {
+        template = new HttpURLRequestTemplate("GET", "http://localhost/search?q=http").withBasicAuth("user", "secret");
+        for (int i = 0; i < fieldCount; i++) {
+            fields.put("field" + i, "value & more " + i);
+        }
+    }
+
+    @Benchmark
+    public HttpURLRequest open() throws IOException {
+        HttpURLRequest request = new HttpURLRequest();
+        request.open("GET", "http://localhost/search?q=http");
+        return request;
+    }
+
+    @Benchmark
+    public HttpURLRequest initURLParams() throws IOException {
+        HttpURLRequest request = new HttpURLRequest();
+        request.open("GET", "http://localhost/search?q=http");
+        request.initURLParams(fields);
+        return request;
+    }
+
+    @Benchmark
+    public HttpURLRequest openWithCredentials() throws IOException {
+        HttpURLRequest request = new HttpURLRequest();
+        request.open("GET", "http://localhost/search?q=http", "user", "secret");
+        return request;
+    }
+
+    @Benchmark
+    public HttpURLRequest template() {
+        return template.newRequest();
+    }
+
+    @Benchmark
+    public HttpURLRequest templateWithQuery() throws IOException {
+        return template.newRequest("", fields);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a response body into an {@link HttpURLResponse} and of decoding it with
+ * {@link HttpURLResponse#getResponseText()} or {@link HttpURLResponse#getResponseLines()}
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseBenchmark {
+    @Param({"1024", "65536", "1048576"})
+    public int bodySize;
+
+    private LocalHttpServer server;
+    private HttpURLClient client;
+    private String url;
+    private HttpURLResponse response;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        client = new HttpURLClient();
+        url = server.url("/bytes?size=" + bodySize);
+        response = send(HttpURLResponseMode.BUFFERED);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    private HttpURLResponse send(HttpURLResponseMode responseMode) throws IOException {
+        HttpURLRequest request = client.newRequest();
+        request.open("GET", url);
+        request.setResponseMode(responseMode);
+        return request.send();
+    }
+
+    @Benchmark
+    public HttpURLResponse buffered() throws IOException {
+        return send(HttpURLResponseMode.BUFFERED);
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        try (HttpURLResponse streamed = send(HttpURLResponseMode.STREAMING)) {
+            return streamed.getResponseStream().transferTo(java.io.OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public String responseText() throws IOException {
+        return response.getResponseText();
+    }
+
+    @Benchmark
+    public long responseLines() {
+        return response.getResponseLines().count();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a {@code GET} round trip through {@link HttpURLRequest#send()}
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+    private LocalHttpServer server;
+    private HttpURLClient client;
+    private HttpURLClient http2Client;
+    private HttpURLClient nioClient;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        client = new HttpURLClient();
+        http2Client = new HttpURLClient();
+        http2Client.setTransport(HttpURLTransport.http2());
+        nioClient = new HttpURLClient();
+        nioClient.setTransport(HttpURLTransport.nio(2, HttpURLNioTransport.DEFAULT_MAX_CONNECTIONS_PER_HOST, 1));
+        url = server.url("/get");
+    }
+
+    @TearDown
+    public void tearDown() {
+        // the shared HTTP/2 transport ignores close(), the NIO one stops its selector threads
+        http2Client.getTransport().close();
+        nioClient.getTransport().close();
+        server.close();
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        HttpURLRequest request = new HttpURLRequest();
+        request.open("GET", url);
+        return request.send().getResponseCode();
+    }
+
+    @Benchmark
+    public int getWithClient() throws IOException {
+        HttpURLRequest request = client.newRequest();
+        request.open("GET", url);
+        return request.send().getResponseCode();
+    }
+
+    @Benchmark
+    public int getWithHttp2Transport() throws IOException {
+        HttpURLRequest request = http2Client.newRequest();
+        request.open("GET", url);
+        return request.send().getResponseCode();
+    }
+
+    @Benchmark
+    public int getWithNioTransport() throws IOException {
+        HttpURLRequest request = nioClient.newRequest();
+        request.open("GET", url);
+        return request.send().getResponseCode();
+    }
+
+    /**
+     * 100 concurrent {@code sendAsync()} calls, which the NIO transport serves without a thread per request
+     */
+    @Benchmark
+    public int getBatchWithNioTransport() throws IOException {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[100];
+        for (int i = 0; i < responses.length; i++) {
+            HttpURLRequest request = nioClient.newRequest();
+            request.open("GET", url);
+            responses[i] = request.sendAsync();
+        }
+        CompletableFuture.allOf(responses).join();
+        return responses.length;
+    }
+}
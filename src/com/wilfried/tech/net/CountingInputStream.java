@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link InputStream} counting the bytes read through it
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+class CountingInputStream extends FilterInputStream {
+    private volatile long count = 0;
+
+    CountingInputStream(InputStream inputStream) {
+        super(inputStream);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) count(1);
+        else end();
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) count(read);
+        else if (read == -1) end();
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        if (skipped > 0) count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * called each time bytes are read
+     *
+     * @param read number of bytes read
+     * @throws IOException to abort the read
+     */
+    protected void count(long read) throws IOException {
+        count += read;
+    }
+
+    /**
+     * called each time a read reaches the end of the stream
+     */
+    protected void end() {
+    }
+}
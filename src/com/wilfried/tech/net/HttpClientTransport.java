@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * transport built on {@link HttpClient}; with HTTP/2, the requests to a host are multiplexed
+ * over a single connection
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpClientTransport implements HttpURLTransport {
+    /**
+     * headers managed by {@link HttpClient} itself, which refuses them; they are dropped, as documented
+     * on {@link HttpURLTransport#http2()}
+     */
+    private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(Arrays.asList("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+    }
+
+    private final HttpClient httpClient;
+
+    HttpClientTransport(HttpClient httpClient) {
+        this.httpClient = Objects.requireNonNull(httpClient);
+    }
+
+    @Override
+    public HttpURLExchange newExchange(String method, URL url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(url.toURI());
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("invalid URL: " + url, e);
+        }
+        // HttpClient takes its connect timeout from its builder only, so connectTimeout cannot apply here;
+        // the timeout of a request bounds the wait for the response headers, not the reads of the body
+        if (readTimeout > 0) builder.timeout(Duration.ofMillis(readTimeout));
+        Exchange exchange = new Exchange(method, builder);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            exchange.setRequestHeader(header.getKey(), header.getValue());
+        }
+        return exchange;
+    }
+
+    @Override
+    public boolean isMultiplexed() {
+        return httpClient.version() == HttpClient.Version.HTTP_2;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientTransport[" + httpClient.version() + "]";
+    }
+
+    static final class SharedInstanceHolder {
+        static final HttpClientTransport INSTANCE = new HttpClientTransport(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(HttpURLExecutors.defaultExecutor())
+                .build());
+    }
+
+    private final class Exchange implements HttpURLExchange {
+        private final String method;
+        private final HttpRequest.Builder builder;
+        private volatile CompletableFuture<HttpResponse<InputStream>> future = null;
+        private volatile BodyPipe bodyPipe = null;
+        private volatile boolean disconnected = false;
+
+        Exchange(String method, HttpRequest.Builder builder) {
+            this.method = method;
+            this.builder = builder;
+        }
+
+        @Override
+        public void setRequestHeader(String name, String value) {
+            if (future != null) throw new IllegalStateException("request already sent");
+            if (RESTRICTED_HEADERS.contains(name)) return;
+            builder.setHeader(name, value);
+        }
+
+        @Override
+        public OutputStream openRequestBody(long contentLength) throws IOException {
+            BodyPipe bodyPipe = new BodyPipe();
+            HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(bodyPipe::getInputStream);
+            if (contentLength == 0) {
+                publisher = HttpRequest.BodyPublishers.noBody();
+                bodyPipe.close();
+            } else if (contentLength > 0) {
+                publisher = HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength);
+            }
+            this.bodyPipe = bodyPipe;
+            send(publisher);
+            return bodyPipe.getOutputStream();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            send(HttpRequest.BodyPublishers.noBody());
+        }
+
+        private void send(HttpRequest.BodyPublisher publisher) throws IOException {
+            if (disconnected) throw new IOException("exchange disconnected");
+            if (method.equals("GET") && publisher.contentLength() == 0) {
+                builder.GET();
+            } else {
+                builder.method(method, publisher);
+            }
+            future = httpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            BodyPipe bodyPipe = this.bodyPipe;
+            // once the client answered or gave up, the rest of the body has nowhere to go
+            if (bodyPipe != null) future.whenComplete((response, e) -> bodyPipe.close());
+        }
+
+        private HttpResponse<InputStream> getResponse() throws IOException {
+            if (future == null) connect();
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                disconnect();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the response");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof HttpTimeoutException) {
+                    SocketTimeoutException timeout = new SocketTimeoutException(cause.getMessage());
+                    timeout.initCause(cause);
+                    throw timeout;
+                }
+                if (cause instanceof CancellationException) throw new IOException("exchange disconnected", cause);
+                if (cause instanceof IOException) throw new IOException(cause.getMessage() != null ? cause.getMessage() : cause.toString(), cause);
+                throw new HttpURLRequestException(cause);
+            } catch (CancellationException e) {
+                throw new IOException("exchange disconnected", e);
+            }
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return getResponse().statusCode();
+        }
+
+        @Override
+        public String getResponseMessage() {
+            // HTTP/2 has no reason phrase and HttpClient drops the one of HTTP/1.1
+            return null;
+        }
+
+        @Override
+        public URL getURL() {
+            try {
+                CompletableFuture<HttpResponse<InputStream>> future = this.future;
+                if (future != null && future.isDone() && !future.isCompletedExceptionally()) {
+                    return future.join().uri().toURL();
+                }
+                return builder.copy().build().uri().toURL();
+            } catch (IOException e) {
+                throw new HttpURLRequestException(e);
+            }
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            try {
+                return getResponse().headers().map();
+            } catch (IOException e) {
+                throw new HttpURLRequestException(e);
+            }
+        }
+
+        @Override
+        public InputStream getResponseBody() throws IOException {
+            return getResponse().body();
+        }
+
+        @Override
+        public void release() {
+            // HttpClient returns the connection to its pool once the body is consumed and closed
+        }
+
+        @Override
+        public void disconnect() {
+            disconnected = true;
+            BodyPipe bodyPipe = this.bodyPipe;
+            if (bodyPipe != null) bodyPipe.close();
+            CompletableFuture<HttpResponse<InputStream>> future = this.future;
+            if (future == null) return;
+            // only completes the future before Java 16, the exchange itself runs until its response
+            if (!future.cancel(true) && !future.isCompletedExceptionally()) {
+                try {
+                    future.join().body().close();
+                } catch (IOException | RuntimeException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * bounded hand-off between the thread writing the request body and the client sending it,
+     * so that a body is never held in memory as a whole; once closed, both sides fail within
+     * {@link #POLL_INTERVAL} instead of waiting for each other
+     */
+    private static final class BodyPipe {
+        private static final int CHUNK_SIZE = 16 * 1024;
+        private static final long POLL_INTERVAL = 100;
+        private static final byte[] EOF = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(8);
+        private volatile boolean closed = false;
+
+        InputStream getInputStream() {
+            return new InputStream() {
+                private byte[] chunk = null;
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] b = new byte[1];
+                    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (len == 0) return 0;
+                    while (chunk == null || position == chunk.length) {
+                        if (chunk == EOF) return -1;
+                        try {
+                            chunk = chunks.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new InterruptedIOException();
+                        }
+                        position = 0;
+                        if (chunk == null && closed) throw new IOException("request body stream closed");
+                    }
+                    int count = Math.min(len, chunk.length - position);
+                    System.arraycopy(chunk, position, b, off, count);
+                    position += count;
+                    return count;
+                }
+
+                @Override
+                public void close() {
+                    BodyPipe.this.close();
+                }
+            };
+        }
+
+        OutputStream getOutputStream() {
+            return new OutputStream() {
+                private final byte[] buffer = new byte[CHUNK_SIZE];
+                private int count = 0;
+                private boolean eof = false;
+
+                @Override
+                public void write(int b) throws IOException {
+                    if (count == buffer.length) flushBuffer();
+                    buffer[count++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    Objects.checkFromIndexSize(off, len, b.length);
+                    while (len > 0) {
+                        if (count == buffer.length) flushBuffer();
+                        int n = Math.min(len, buffer.length - count);
+                        System.arraycopy(b, off, buffer, count, n);
+                        count += n;
+                        off += n;
+                        len -= n;
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    flushBuffer();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (eof) return;
+                    flushBuffer();
+                    eof = true;
+                    try {
+                        put(EOF);
+                    } catch (InterruptedIOException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        // the client may have answered, and closed the pipe, as soon as it had the last byte
+                    }
+                }
+
+                private void flushBuffer() throws IOException {
+                    if (eof) throw new IOException("request body closed");
+                    if (count == 0) return;
+                    put(Arrays.copyOf(buffer, count));
+                    count = 0;
+                }
+            };
+        }
+
+        private void put(byte[] chunk) throws IOException {
+            try {
+                do {
+                    if (closed) throw new IOException("request body stream closed by the transport");
+                } while (!chunks.offer(chunk, POLL_INTERVAL, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        void close() {
+            closed = true;
+            chunks.clear();
+        }
+    }
+}
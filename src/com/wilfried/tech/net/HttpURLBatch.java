@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * {@code HttpURLBatch} sends a collection of opened {@link HttpURLRequest} concurrently,
+ * never running more than a global number of requests, nor more than a number of
+ * requests per host, at the same time.
+ * <p>
+ * A batch is single-use, like the requests it contains.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLBatch {
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int DEFAULT_MAX_CONCURRENCY_PER_HOST = 4;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+    private int maxConcurrencyPerHost = DEFAULT_MAX_CONCURRENCY_PER_HOST;
+    private boolean failFast = false;
+    private Executor executor = HttpURLExecutors.defaultExecutor();
+    private boolean executed = false;
+
+    /**
+     * add a request sent without body
+     *
+     * @param request an opened request
+     */
+    public void add(@NotNull HttpURLRequest request) {
+        add(request, request::send);
+    }
+
+    public void add(@NotNull HttpURLRequest request, String body) {
+        add(request, () -> request.send(body));
+    }
+
+    public void add(@NotNull HttpURLRequest request, InputStream blob) {
+        add(request, () -> request.send(blob));
+    }
+
+    public void add(@NotNull HttpURLRequest request, HttpURLRequestData httpURLRequestData) {
+        add(request, () -> request.send(httpURLRequestData));
+    }
+
+    private void add(HttpURLRequest request, Callable<HttpURLResponse> call) {
+        checkState();
+        request.checkState();
+        entries.add(new Entry(entries.size(), request, call));
+    }
+
+    /**
+     * @param maxConcurrency maximum number of requests running at the same time
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        checkState();
+        if (maxConcurrency <= 0) throw new IllegalArgumentException("maxConcurrency must be positive");
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @param maxConcurrencyPerHost maximum number of requests running at the same time against a single host
+     */
+    public void setMaxConcurrencyPerHost(int maxConcurrencyPerHost) {
+        checkState();
+        if (maxConcurrencyPerHost <= 0) throw new IllegalArgumentException("maxConcurrencyPerHost must be positive");
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+    }
+
+    /**
+     * @param failFast if {@code true}, the first failed request aborts the running requests, cancels
+     *                 the others and makes {@code execute} throw; otherwise every failure is collected
+     *                 in its {@link HttpURLBatchResult}
+     */
+    public void setFailFast(boolean failFast) {
+        checkState();
+        this.failFast = failFast;
+    }
+
+    public void setExecutor(@NotNull Executor executor) {
+        checkState();
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * send every request and wait for all of them
+     *
+     * @return the results, in the order the requests were added
+     * @throws HttpURLRequestException if a request fails in fail-fast mode
+     * @throws InterruptedException    if the calling thread is interrupted; running requests are aborted,
+     *                                 and the responses not passed to {@code consumer} are closed
+     */
+    public List<HttpURLBatchResult> execute() throws InterruptedException {
+        HttpURLBatchResult[] results = new HttpURLBatchResult[entries.size()];
+        execute(result -> results[result.getIndex()] = result);
+        return Arrays.asList(results);
+    }
+
+    /**
+     * send every request, passing each result to {@code consumer} on the calling thread as soon as it completes
+     *
+     * @param consumer receiver of the results, in completion order
+     * @throws HttpURLRequestException if a request fails in fail-fast mode
+     * @throws InterruptedException    if the calling thread is interrupted; running requests are aborted,
+     *                                 and the responses not passed to {@code consumer} are closed
+     */
+    public void execute(@NotNull Consumer<HttpURLBatchResult> consumer) throws InterruptedException {
+        checkState();
+        executed = true;
+
+        Map<String, ArrayDeque<Entry>> queues = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            queues.computeIfAbsent(HttpURLConnectionPool.routeOf(entry.request.getURL()), k -> new ArrayDeque<>()).add(entry);
+        }
+        Map<String, Integer> activeByHost = new HashMap<>();
+        List<Entry> running = new ArrayList<>();
+        BlockingQueue<HttpURLBatchResult> completed = new LinkedBlockingQueue<>();
+        AtomicBoolean interrupted = new AtomicBoolean(false);
+        HttpURLBatchResult failure = null;
+
+        try {
+            while (!queues.isEmpty() || !running.isEmpty()) {
+                if (failure == null) {
+                    for (Iterator<Map.Entry<String, ArrayDeque<Entry>>> iterator = queues.entrySet().iterator(); iterator.hasNext() && running.size() < maxConcurrency; ) {
+                        Map.Entry<String, ArrayDeque<Entry>> queue = iterator.next();
+                        int active = activeByHost.getOrDefault(queue.getKey(), 0);
+                        while (active < maxConcurrencyPerHost && running.size() < maxConcurrency && !queue.getValue().isEmpty()) {
+                            Entry entry = queue.getValue().poll();
+                            running.add(entry);
+                            active++;
+                            executor.execute(() -> {
+                                completed.add(entry.run());
+                                // nobody takes the results once the caller is interrupted
+                                if (interrupted.get()) closeResponses(completed);
+                            });
+                        }
+                        activeByHost.put(queue.getKey(), active);
+                        if (queue.getValue().isEmpty()) iterator.remove();
+                    }
+                }
+                if (running.isEmpty()) break;
+
+                HttpURLBatchResult result = completed.take();
+                Entry entry = entries.get(result.getIndex());
+                running.remove(entry);
+                activeByHost.merge(HttpURLConnectionPool.routeOf(entry.request.getURL()), -1, Integer::sum);
+                if (failFast && !result.isSuccessful() && failure == null) {
+                    failure = result;
+                    queues.clear();
+                    for (Entry other : running) other.request.abort();
+                }
+                if (failure == null) {
+                    consumer.accept(result);
+                } else {
+                    closeResponse(result);
+                }
+            }
+        } catch (InterruptedException e) {
+            interrupted.set(true);
+            for (Entry entry : running) entry.request.abort();
+            closeResponses(completed);
+            throw e;
+        }
+        if (failure != null) {
+            throw new HttpURLRequestException("request " + failure.getIndex() + " of the batch failed", failure.getException());
+        }
+    }
+
+    private static void closeResponses(BlockingQueue<HttpURLBatchResult> completed) {
+        for (HttpURLBatchResult result; (result = completed.poll()) != null; ) closeResponse(result);
+    }
+
+    private static void closeResponse(HttpURLBatchResult result) {
+        if (result.getResponse() == null) return;
+        try {
+            result.getResponse().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void checkState() {
+        if (executed) {
+            throw new HttpURLRequestException("batch already executed");
+        }
+    }
+
+    private static final class Entry {
+        private final int index;
+        private final HttpURLRequest request;
+        private final Callable<HttpURLResponse> call;
+
+        Entry(int index, HttpURLRequest request, Callable<HttpURLResponse> call) {
+            this.index = index;
+            this.request = request;
+            this.call = call;
+        }
+
+        HttpURLBatchResult run() {
+            try {
+                return new HttpURLBatchResult(index, request, call.call(), null);
+            } catch (Throwable e) {
+                return new HttpURLBatchResult(index, request, null, e);
+            }
+        }
+    }
+}
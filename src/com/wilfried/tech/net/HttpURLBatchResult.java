@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Outcome of one request of an {@link HttpURLBatch}
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLBatchResult {
+    private final int index;
+    private final HttpURLRequest request;
+    private final HttpURLResponse response;
+    private final Throwable exception;
+
+    HttpURLBatchResult(int index, HttpURLRequest request, HttpURLResponse response, Throwable exception) {
+        this.index = index;
+        this.request = request;
+        this.response = response;
+        this.exception = exception;
+    }
+
+    /**
+     * @return position of the request in the batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public HttpURLRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the response, or {@code null} if the request failed
+     */
+    public @Nullable HttpURLResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * @return the failure of the request, or {@code null} if a response was received
+     */
+    public @Nullable Throwable getException() {
+        return exception;
+    }
+
+    public boolean isSuccessful() {
+        return exception == null;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Shared pool of the scratch buffers used to copy bodies
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLBuffers {
+    static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+
+    /**
+     * largest array the virtual machine can allocate
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * largest array allocated from an announced length before any byte is received, so that a wrong
+     * or hostile {@code Content-Length} cannot force a huge allocation
+     */
+    private static final int MAX_PREALLOCATION = 1024 * 1024;
+
+    /**
+     * smallest file read through a memory mapping, below which mapping costs more than reading
+     */
+    private static final long MAPPED_TRANSFER_THRESHOLD = 256 * 1024;
+
+    /**
+     * largest part of a file mapped at once
+     */
+    private static final long MAX_MAPPING_SIZE = 64 * 1024 * 1024;
+
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(MAX_POOLED_BUFFERS);
+
+    private HttpURLBuffers() {
+    }
+
+    /**
+     * @return a buffer of {@link #BUFFER_SIZE} bytes, to be given back with {@link #release(byte[])}
+     */
+    static byte[] acquire() {
+        byte[] buffer = POOL.poll();
+        return buffer != null ? buffer : new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * give a buffer back to the pool, which drops it when it is full
+     */
+    static void release(byte[] buffer) {
+        if (buffer.length == BUFFER_SIZE) POOL.offer(buffer);
+    }
+
+    /**
+     * copy {@code inputStream} to {@code outputStream} with a pooled buffer
+     *
+     * @return the number of bytes copied
+     */
+    static long transfer(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte[] buffer = acquire();
+        try {
+            long transferred = 0;
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                outputStream.write(buffer, 0, read);
+                transferred += read;
+            }
+            return transferred;
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * copy the first {@code length} bytes of a file to {@code outputStream}, opening the file only for the copy;
+     * large files are read from a memory mapping, which spares copying them out of the page cache twice
+     *
+     * @throws EOFException if the file is shorter than {@code length}
+     */
+    static void transfer(Path path, long length, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < length) throw new EOFException(path + " is shorter than the " + length + " bytes announced");
+            byte[] buffer = acquire();
+            try {
+                if (length >= MAPPED_TRANSFER_THRESHOLD) {
+                    for (long position = 0; position < length; ) {
+                        long size = Math.min(length - position, MAX_MAPPING_SIZE);
+                        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                        while (mapping.hasRemaining()) {
+                            int count = Math.min(buffer.length, mapping.remaining());
+                            mapping.get(buffer, 0, count);
+                            outputStream.write(buffer, 0, count);
+                        }
+                        position += size;
+                    }
+                } else {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+                    for (long remaining = length; remaining > 0; ) {
+                        byteBuffer.clear().limit((int) Math.min(buffer.length, remaining));
+                        int read = channel.read(byteBuffer);
+                        if (read < 0) throw new EOFException(path + " is shorter than the " + length + " bytes announced");
+                        outputStream.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                }
+            } finally {
+                release(buffer);
+            }
+        }
+    }
+
+    /**
+     * read a stream to its end; the array is allocated once when {@code expectedLength} is right and
+     * at most {@link #MAX_PREALLOCATION} bytes, and small bodies of unknown length are read into a pooled buffer before their single copy
+     *
+     * @param expectedLength number of bytes announced for the stream, or {@code -1}
+     * @return the bytes of the stream, in an array of their exact size
+     */
+    static byte[] readAll(InputStream inputStream, long expectedLength) throws IOException {
+        if (expectedLength >= 0) {
+            // the announced length is trusted up to MAX_PREALLOCATION bytes, the array grows with the bytes received beyond
+            byte[] bytes = new byte[(int) Math.min(expectedLength, MAX_PREALLOCATION)];
+            int count = inputStream.readNBytes(bytes, 0, bytes.length);
+            if (count < bytes.length) return Arrays.copyOf(bytes, count);
+            int next = inputStream.read();
+            if (next == -1) return bytes;
+            bytes = Arrays.copyOf(bytes, grow(bytes.length, bytes.length + 1));
+            bytes[count++] = (byte) next;
+            return readRemaining(inputStream, bytes, count);
+        }
+        byte[] buffer = acquire();
+        try {
+            int count = inputStream.readNBytes(buffer, 0, buffer.length);
+            if (count < buffer.length) return Arrays.copyOf(buffer, count);
+            return readRemaining(inputStream, Arrays.copyOf(buffer, grow(count, count + 1)), count);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static byte[] readRemaining(InputStream inputStream, byte[] bytes, int count) throws IOException {
+        int read;
+        while ((read = inputStream.read(bytes, count, bytes.length - count)) != -1) {
+            count += read;
+            if (count == bytes.length) bytes = Arrays.copyOf(bytes, grow(count, count + 1));
+        }
+        return count == bytes.length ? bytes : Arrays.copyOf(bytes, count);
+    }
+
+    private static int grow(int length, int minLength) throws IOException {
+        if (minLength > MAX_ARRAY_SIZE) throw new IOException("body is too large to be buffered");
+        return (int) Math.min(Math.max((long) length * 2, minLength), MAX_ARRAY_SIZE);
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpURLCache} stores the responses of {@code GET} requests following their
+ * {@code Cache-Control} and {@code Expires} headers.
+ * <p>
+ * Entries are kept in a size-bounded, least recently used, memory tier and optionally
+ * in a directory. A stale entry carrying an {@code ETag} or a {@code Last-Modified} header
+ * is revalidated with {@code If-None-Match} or {@code If-Modified-Since}; when the server
+ * answers {@link HttpURLRequest#HTTP_NOT_MODIFIED}, the cached body is returned.
+ * </p>
+ * <p>
+ * Only buffered responses are stored. A cache can be shared by several requests and threads, so
+ * it behaves as a shared cache: {@code private} responses are never stored, and responses to requests
+ * carrying {@code Authorization} only when they are marked {@code public} or carry {@code s-maxage}.
+ * Requests carrying {@code Range} or {@code If-Range}, and requests whose response is not
+ * {@linkplain HttpURLRequest#setContentDecoding(boolean) decoded}, bypass the cache, whose bodies are whole and decoded.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLCache {
+    private static final int DISK_FORMAT_VERSION = 1;
+    private static final int ENTRY_OVERHEAD = 512;
+
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxMemorySize;
+    private final Path directory;
+    private final long maxDiskSize;
+    private long memorySize = 0;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong revalidationCount = new AtomicLong();
+
+    /**
+     * create a memory-only cache
+     *
+     * @param maxMemorySize approximate number of bytes the cached responses may use
+     */
+    public HttpURLCache(long maxMemorySize) {
+        this(maxMemorySize, null, 0);
+    }
+
+    /**
+     * create a cache backed by a directory, which is created when the first entry is stored
+     *
+     * @param maxMemorySize approximate number of bytes the cached responses may use in memory
+     * @param directory     directory keeping a copy of the cached responses, which survives memory eviction and restarts
+     * @param maxDiskSize   number of bytes the cached responses may use in {@code directory}
+     */
+    public HttpURLCache(long maxMemorySize, Path directory, long maxDiskSize) {
+        if (maxMemorySize < 0) throw new IllegalArgumentException("maxMemorySize is negative");
+        this.maxMemorySize = maxMemorySize;
+        this.directory = directory;
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    /**
+     * @return number of requests answered from the cache without contacting the server
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of requests that needed a full response from the server
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of stale entries the server confirmed with {@link HttpURLRequest#HTTP_NOT_MODIFIED}
+     */
+    public long getRevalidationCount() {
+        return revalidationCount.get();
+    }
+
+    /**
+     * remove every entry from memory and from the directory
+     *
+     * @throws IOException if a file of the directory cannot be deleted
+     */
+    public synchronized void clear() throws IOException {
+        memory.clear();
+        memorySize = 0;
+        if (directory == null) return;
+        for (File file : listDiskEntries()) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * find the entry matching a request
+     *
+     * @return the entry, fresh or stale, or {@code null}
+     */
+    synchronized Entry get(URL url, Map<String, String> requestHeaders) {
+        String key = keyOf(url);
+        Entry entry = memory.get(key);
+        if (entry == null && directory != null) {
+            entry = readFromDisk(key);
+            if (entry != null) putInMemory(entry);
+        }
+        if (entry == null || !entry.matches(requestHeaders)) return null;
+        return entry;
+    }
+
+    /**
+     * serve a fresh entry
+     */
+    HttpURLResponse hit(Entry entry) {
+        hitCount.incrementAndGet();
+        return entry.toResponse();
+    }
+
+    /**
+     * record the response received for a request, which carried the validators
+     * of {@code cached} if it is not {@code null}
+     *
+     * @return the response to give to the caller
+     */
+    HttpURLResponse onResponse(URL url, Map<String, String> requestHeaders, Entry cached, HttpURLResponse response) {
+        if (cached != null && response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            revalidationCount.incrementAndGet();
+            Entry revalidated = cached.revalidate(response.getHeaderFields());
+            if (isStorable(requestHeaders, revalidated)) put(revalidated);
+            try {
+                // releases the connection, the permit and the watchdog of a streaming response
+                response.close();
+            } catch (IOException ignored) {
+                // the cached body is served, whatever became of the connection
+            }
+            return revalidated.toResponse();
+        }
+        missCount.incrementAndGet();
+        Entry entry = Entry.of(keyOf(url), requestHeaders, response);
+        if (entry != null && isStorable(requestHeaders, entry)) {
+            put(entry);
+        }
+        return response;
+    }
+
+    private boolean isStorable(Map<String, String> requestHeaders, Entry entry) {
+        Map<String, String> requestCacheControl = parseCacheControl(headerValue(requestHeaders, "Cache-Control"));
+        Map<String, String> cacheControl = parseCacheControl(entry.header("Cache-Control"));
+        if (requestCacheControl.containsKey("no-store") || cacheControl.containsKey("no-store")) return false;
+        if (cacheControl.containsKey("private")) return false;
+        // the response of an authenticated request may only be shared when the server allows it
+        if (headerValue(requestHeaders, "Authorization") != null
+                && !cacheControl.containsKey("public") && !cacheControl.containsKey("s-maxage")) return false;
+        if ("*".equals(entry.header("Vary"))) return false;
+        return entry.getFreshnessLifetime() > 0 || entry.header("ETag") != null || entry.header("Last-Modified") != null;
+    }
+
+    private synchronized void put(Entry entry) {
+        putInMemory(entry);
+        if (directory != null) writeToDisk(entry);
+    }
+
+    private void putInMemory(Entry entry) {
+        Entry previous = memory.put(entry.key, entry);
+        if (previous != null) memorySize -= previous.size();
+        memorySize += entry.size();
+        for (Iterator<Entry> iterator = memory.values().iterator(); memorySize > maxMemorySize && iterator.hasNext(); ) {
+            memorySize -= iterator.next().size();
+            iterator.remove();
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = directory.resolve(fileNameOf(key));
+        if (!Files.isRegularFile(file)) return null;
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+            if (input.readInt() != DISK_FORMAT_VERSION || !input.readUTF().equals(key)) return null;
+            Entry entry = Entry.read(key, input);
+            file.toFile().setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeToDisk(Entry entry) {
+        Path file = directory.resolve(fileNameOf(entry.key));
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temp))) {
+                output.writeInt(DISK_FORMAT_VERSION);
+                output.writeUTF(entry.key);
+                entry.write(output);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trimDisk();
+        } catch (IOException ignored) {
+            // the disk tier is best effort, the entry is still in memory
+        }
+    }
+
+    private void trimDisk() throws IOException {
+        List<File> files = listDiskEntries();
+        long size = 0;
+        for (File file : files) size += file.length();
+        files.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (Iterator<File> iterator = files.iterator(); size > maxDiskSize && iterator.hasNext(); ) {
+            File file = iterator.next();
+            size -= file.length();
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    private List<File> listDiskEntries() {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(".entry"));
+        List<File> entries = new ArrayList<>();
+        if (files != null) Collections.addAll(entries, files);
+        return entries;
+    }
+
+    private static String keyOf(URL url) {
+        return "GET " + url;
+    }
+
+    private static String fileNameOf(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) name.append(String.format("%02x", b));
+            return name.append(".entry").toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static String headerValue(Map<String, ?> headers, String name) {
+        for (Map.Entry<String, ?> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                Object value = header.getValue();
+                if (value instanceof List) return String.join(", ", (List<String>) value);
+                return (String) value;
+            }
+        }
+        return null;
+    }
+
+    static Map<String, String> parseCacheControl(String cacheControl) {
+        Map<String, String> directives = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (cacheControl == null) return directives;
+        for (String directive : cacheControl.split(",")) {
+            int equals = directive.indexOf('=');
+            if (equals < 0) {
+                directives.put(directive.trim(), "");
+            } else {
+                directives.put(directive.substring(0, equals).trim(), directive.substring(equals + 1).trim().replace("\"", ""));
+            }
+        }
+        return directives;
+    }
+
+    static long parseDate(String date) {
+        if (date == null) return -1;
+        try {
+            return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static long parseSeconds(String seconds) {
+        try {
+            return seconds == null ? -1 : Long.parseLong(seconds);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * a cached response with the values of the request headers it varies on
+     */
+    static final class Entry {
+        private final String key;
+        private final int responseCode;
+        private final String statusText;
+        private final URL responseUrl;
+        private final Map<String, List<String>> headerFields;
+        private final Map<String, String> varyingHeaders;
+        private final byte[] body;
+        private final long responseTime;
+
+        private Entry(String key, int responseCode, String statusText, URL responseUrl, Map<String, List<String>> headerFields,
+                      Map<String, String> varyingHeaders, byte[] body, long responseTime) {
+            this.key = key;
+            this.responseCode = responseCode;
+            this.statusText = statusText;
+            this.responseUrl = responseUrl;
+            this.headerFields = headerFields;
+            this.varyingHeaders = varyingHeaders;
+            this.body = body;
+            this.responseTime = responseTime;
+        }
+
+        static Entry of(String key, Map<String, String> requestHeaders, HttpURLResponse response) {
+            int code = response.getResponseCode();
+            if (response.getBody() == null || (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_NOT_AUTHORITATIVE
+                    && code != HttpURLConnection.HTTP_MOVED_PERM && code != HttpURLConnection.HTTP_GONE)) {
+                return null;
+            }
+            Map<String, List<String>> headerFields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, List<String>> header : response.getHeaderFields().entrySet()) {
+                if (header.getKey() != null) headerFields.put(header.getKey(), header.getValue());
+            }
+            return new Entry(key, code, response.getStatusText(), response.getResponseURL(), headerFields,
+                    varyingHeaders(headerFields, requestHeaders), response.getBody(), System.currentTimeMillis());
+        }
+
+        private static Map<String, String> varyingHeaders(Map<String, List<String>> headerFields, Map<String, String> requestHeaders) {
+            Map<String, String> varying = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            String vary = headerValue(headerFields, "Vary");
+            if (vary == null) return varying;
+            for (String name : vary.split(",")) {
+                String value = headerValue(requestHeaders, name.trim());
+                varying.put(name.trim(), value == null ? "" : value);
+            }
+            return varying;
+        }
+
+        boolean matches(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> varying : varyingHeaders.entrySet()) {
+                String value = headerValue(requestHeaders, varying.getKey());
+                if (!varying.getValue().equals(value == null ? "" : value)) return false;
+            }
+            return true;
+        }
+
+        String header(String name) {
+            return headerValue(headerFields, name);
+        }
+
+        /**
+         * @return how long the response stays fresh after being generated, in milliseconds
+         */
+        long getFreshnessLifetime() {
+            Map<String, String> cacheControl = parseCacheControl(header("Cache-Control"));
+            if (cacheControl.containsKey("no-cache")) return 0;
+            // the cache is shared, so s-maxage prevails over max-age
+            long sharedMaxAge = parseSeconds(cacheControl.get("s-maxage"));
+            if (sharedMaxAge >= 0) return sharedMaxAge * 1000;
+            long maxAge = parseSeconds(cacheControl.get("max-age"));
+            if (maxAge >= 0) return maxAge * 1000;
+            long expires = parseDate(header("Expires"));
+            if (expires < 0) return 0;
+            long date = parseDate(header("Date"));
+            return expires - (date < 0 ? responseTime : date);
+        }
+
+        /**
+         * @return the age of the response, in milliseconds
+         */
+        private long getAge(long now) {
+            long age = Math.max(0, parseSeconds(header("Age"))) * 1000;
+            long date = parseDate(header("Date"));
+            long apparentAge = date < 0 ? 0 : Math.max(0, responseTime - date);
+            return Math.max(age, apparentAge) + (now - responseTime);
+        }
+
+        boolean isFresh(Map<String, String> requestHeaders) {
+            Map<String, String> requestCacheControl = parseCacheControl(headerValue(requestHeaders, "Cache-Control"));
+            if (requestCacheControl.containsKey("no-cache")) return false;
+            long lifetime = getFreshnessLifetime();
+            long maxAge = parseSeconds(requestCacheControl.get("max-age"));
+            if (maxAge >= 0) lifetime = Math.min(lifetime, maxAge * 1000);
+            return getAge(System.currentTimeMillis()) < lifetime;
+        }
+
+        /**
+         * add the validators of this entry to a request
+         */
+        void addConditions(HttpURLExchange exchange) {
+            String etag = header("ETag");
+            String lastModified = header("Last-Modified");
+            if (etag != null) exchange.setRequestHeader("If-None-Match", etag);
+            if (lastModified != null) exchange.setRequestHeader("If-Modified-Since", lastModified);
+        }
+
+        /**
+         * @return this entry refreshed by the headers of a {@link HttpURLRequest#HTTP_NOT_MODIFIED} response
+         */
+        Entry revalidate(Map<String, List<String>> notModifiedHeaders) {
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            headers.putAll(headerFields);
+            for (Map.Entry<String, List<String>> header : notModifiedHeaders.entrySet()) {
+                if (header.getKey() == null || header.getKey().equalsIgnoreCase("Content-Length")) continue;
+                headers.put(header.getKey(), header.getValue());
+            }
+            return new Entry(key, responseCode, statusText, responseUrl, headers, varyingHeaders, body, System.currentTimeMillis());
+        }
+
+        HttpURLResponse toResponse() {
+            return new HttpURLResponse(responseCode, statusText, responseUrl, headerFields, body);
+        }
+
+        long size() {
+            return body.length + ENTRY_OVERHEAD;
+        }
+
+        void write(DataOutputStream output) throws IOException {
+            output.writeInt(responseCode);
+            output.writeUTF(Objects.toString(statusText, ""));
+            output.writeUTF(responseUrl.toString());
+            output.writeLong(responseTime);
+            output.writeInt(varyingHeaders.size());
+            for (Map.Entry<String, String> varying : varyingHeaders.entrySet()) {
+                output.writeUTF(varying.getKey());
+                output.writeUTF(varying.getValue());
+            }
+            output.writeInt(headerFields.size());
+            for (Map.Entry<String, List<String>> header : headerFields.entrySet()) {
+                output.writeUTF(header.getKey());
+                output.writeInt(header.getValue().size());
+                for (String value : header.getValue()) output.writeUTF(value);
+            }
+            output.writeInt(body.length);
+            output.write(body);
+        }
+
+        static Entry read(String key, DataInputStream input) throws IOException {
+            int responseCode = input.readInt();
+            String statusText = input.readUTF();
+            URL responseUrl;
+            try {
+                responseUrl = new URL(input.readUTF());
+            } catch (MalformedURLException e) {
+                throw new IOException(e);
+            }
+            long responseTime = input.readLong();
+            Map<String, String> varyingHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = input.readInt(); i > 0; i--) {
+                varyingHeaders.put(input.readUTF(), input.readUTF());
+            }
+            Map<String, List<String>> headerFields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = input.readInt(); i > 0; i--) {
+                String name = input.readUTF();
+                List<String> values = new ArrayList<>();
+                for (int j = input.readInt(); j > 0; j--) values.add(input.readUTF());
+                headerFields.put(name, values);
+            }
+            byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new Entry(key, responseCode, statusText, responseUrl, headerFields, varyingHeaders, body, responseTime);
+        }
+    }
+}
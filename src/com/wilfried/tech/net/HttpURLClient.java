@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * {@code HttpURLClient} is a long-lived, thread-safe factory of {@link HttpURLRequest}.
+ * <p>
+ * Requests created by a client hand their connection back to the keep-alive cache once
+ * the response is consumed instead of closing it, so that following requests to the same
+ * host skip the TCP and TLS handshakes. The client bounds the number of connections used
+ * per host and in total; a request waits in {@code send()} until a connection is available.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLClient {
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+    public static final long DEFAULT_IDLE_TIMEOUT = 5000;
+
+    private final HttpURLConnectionPool connectionPool;
+    private volatile Executor executor = HttpURLExecutors.defaultExecutor();
+    private volatile HttpURLCache cache = null;
+    private volatile HttpURLEventListener eventListener = null;
+    private volatile HttpURLTransport transport = HttpURLTransport.getDefault();
+    private volatile HttpURLRetryPolicy retryPolicy = null;
+    private volatile HttpURLHostLimiter hostLimiter = null;
+    private volatile HttpURLCoalescer coalescer = null;
+    private volatile int connectTimeout = 0;
+    private volatile long callTimeout = 0;
+
+    public HttpURLClient() {
+        connectionPool = new HttpURLConnectionPool(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * create a new request using the connections of this client
+     *
+     * @return a request ready to be opened
+     */
+    public HttpURLRequest newRequest() {
+        return new HttpURLRequest(this);
+    }
+
+    /**
+     * @param maxConnections maximum number of connections in use at the same time
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0) throw new IllegalArgumentException("maxConnections must be positive");
+        connectionPool.setMaxConnections(maxConnections);
+    }
+
+    /**
+     * @param maxConnectionsPerHost maximum number of connections in use at the same time to a single host
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost <= 0) throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+        connectionPool.setMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    /**
+     * set the executor running the {@code sendAsync} methods of the requests of this client;
+     * by default virtual threads are used when the runtime supports them
+     *
+     * @param executor executor of the asynchronous calls
+     */
+    public void setExecutor(@NotNull Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * share a response cache between the requests created from now on
+     *
+     * @param cache the cache to use, or {@code null} to disable caching
+     */
+    public void setCache(HttpURLCache cache) {
+        this.cache = cache;
+    }
+
+    public HttpURLCache getCache() {
+        return cache;
+    }
+
+    /**
+     * register a listener on the requests created from now on, typically an {@link HttpURLMetrics}
+     *
+     * @param eventListener the listener, or {@code null}
+     */
+    public void setEventListener(HttpURLEventListener eventListener) {
+        this.eventListener = eventListener;
+    }
+
+    public HttpURLEventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * set the transport of the requests created from now on; with a multiplexed transport such as
+     * {@link HttpURLTransport#http2()}, the connection limits of this client do not apply
+     *
+     * @param transport the transport
+     */
+    public void setTransport(@NotNull HttpURLTransport transport) {
+        this.transport = Objects.requireNonNull(transport);
+    }
+
+    public HttpURLTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * @param retryPolicy retry policy of the requests created from now on, or {@code null} to send them once
+     */
+    public void setRetryPolicy(HttpURLRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public HttpURLRetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * pace the requests created from now on; unlike the connection limits, a limiter may be shared by several clients
+     *
+     * @param hostLimiter the limiter, or {@code null} for none
+     */
+    public void setHostLimiter(HttpURLHostLimiter hostLimiter) {
+        this.hostLimiter = hostLimiter;
+    }
+
+    public HttpURLHostLimiter getHostLimiter() {
+        return hostLimiter;
+    }
+
+    /**
+     * let the identical requests created from now on share their calls while in flight
+     *
+     * @param coalescer the coalescer, or {@code null} to send every request
+     */
+    public void setCoalescer(HttpURLCoalescer coalescer) {
+        this.coalescer = coalescer;
+    }
+
+    public HttpURLCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * @param connectTimeout connect timeout in milliseconds of the requests created from now on, or {@code 0} for none
+     * @see HttpURLRequest#setConnectTimeout(int)
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        if (connectTimeout < 0) throw new IllegalArgumentException("connectTimeout is negative");
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @param callTimeout end-to-end timeout in milliseconds of the requests created from now on, or {@code 0} for none
+     * @see HttpURLRequest#setCallTimeout(long)
+     */
+    public void setCallTimeout(long callTimeout) {
+        if (callTimeout < 0) throw new IllegalArgumentException("callTimeout is negative");
+        this.callTimeout = callTimeout;
+    }
+
+    public long getCallTimeout() {
+        return callTimeout;
+    }
+
+    /**
+     * @return the usage of the connections of this client, partly estimated as described in {@link HttpURLPoolStats}
+     */
+    public HttpURLPoolStats getPoolStats() {
+        return connectionPool.getStats();
+    }
+
+    HttpURLConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+}
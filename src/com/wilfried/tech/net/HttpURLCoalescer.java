@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@code HttpURLCoalescer} lets identical requests sent at the same time share a single call to the server.
+ * <p>
+ * A buffered {@code GET} or {@code HEAD} without body is identical to another one in flight when their
+ * URL, headers, content decoding and maximum response size are the same. The first request is sent;
+ * the others wait for its response and each receives its own {@link HttpURLResponse} over the shared
+ * body, or its failure. Requests arriving after the response are sent again: pair the coalescer with a
+ * {@link HttpURLCache} to reuse responses over time.
+ * </p>
+ * <p>
+ * A coalescer can be shared by several requests and threads.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLCoalescer {
+    private final Map<String, CompletableFuture<HttpURLResponse>> calls = new ConcurrentHashMap<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong savedCount = new AtomicLong();
+
+    /**
+     * @return number of calls sent to the server on behalf of coalesced requests
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return number of requests that shared the response of another one instead of calling the server
+     */
+    public long getSavedCount() {
+        return savedCount.get();
+    }
+
+    /**
+     * @return number of calls currently shared
+     */
+    public int getInFlightCount() {
+        return calls.size();
+    }
+
+    /**
+     * @return the future response of the call in flight under {@code key}, or {@code null} if the caller
+     * must send it with {@link #send(String, CompletableFuture, Call)}
+     */
+    CompletableFuture<HttpURLResponse> join(String key, CompletableFuture<HttpURLResponse> call) {
+        CompletableFuture<HttpURLResponse> existing = calls.putIfAbsent(key, call);
+        if (existing != null) savedCount.incrementAndGet();
+        return existing;
+    }
+
+    /**
+     * send the call registered under {@code key}, and hand its result to the requests which joined it
+     */
+    HttpURLResponse send(String key, CompletableFuture<HttpURLResponse> call, Call sender) throws IOException {
+        sentCount.incrementAndGet();
+        try {
+            HttpURLResponse response = sender.send();
+            call.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    @FunctionalInterface
+    interface Call {
+        HttpURLResponse send() throws IOException;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Admission control and bookkeeping for the keep-alive connections of an {@link HttpURLClient}.
+ * <p>
+ * The sockets themselves are kept by the keep-alive cache of {@link java.net.HttpURLConnection},
+ * which reuses a socket once its response body has been fully read and closed. This pool
+ * bounds how many connections may be in use per host and in total, and mirrors the sockets
+ * that were handed back to the keep-alive cache so they can be counted.
+ * </p>
+ * <p>
+ * The mirror is an estimate: the pool never sees nor closes a socket. The keep-alive cache keeps at
+ * most {@code http.maxConnections} (5 by default) idle sockets per host and expires them on its own
+ * schedule, so a request counted as reused may have opened a new socket, and an idle entry expired
+ * here only stops being counted while its socket may still be kept, or already be closed.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLConnectionPool {
+    private final Map<String, Route> routes = new HashMap<>();
+    private int maxConnections;
+    private int maxConnectionsPerHost;
+    private final long idleTimeout;
+    private int leased = 0;
+    private int idle = 0;
+    private int pending = 0;
+    private long created = 0;
+    private long reused = 0;
+    private long evicted = 0;
+
+    HttpURLConnectionPool(int maxConnections, int maxConnectionsPerHost, long idleTimeout) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.idleTimeout = idleTimeout;
+    }
+
+    static String routeOf(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol() + "://" + url.getHost().toLowerCase() + ":" + port;
+    }
+
+    synchronized void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        notifyAll();
+    }
+
+    synchronized void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        notifyAll();
+    }
+
+    /**
+     * wait until a connection to {@code url} may be used
+     *
+     * @param url       destination of the request
+     * @param deadline  time left to the request
+     * @param cancelled tells whether the request was aborted, checked each time {@link #wakeUp()} is called
+     * @return the lease that must be released once the response is consumed
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting, or the deadline passes
+     */
+    synchronized Lease acquire(URL url, HttpURLDeadline deadline, BooleanSupplier cancelled) throws InterruptedIOException {
+        String key = routeOf(url);
+        pending++;
+        try {
+            while (true) {
+                if (cancelled.getAsBoolean()) throw new HttpURLRequestException("request aborted");
+                expireIdleCounts();
+                Route route = routes.computeIfAbsent(key, k -> new Route());
+                if (leased < maxConnections && route.leased < maxConnectionsPerHost) {
+                    if (route.idle.pollLast() != null) {
+                        idle--;
+                        reused++;
+                    } else {
+                        created++;
+                    }
+                    route.leased++;
+                    leased++;
+                    return new Lease(key);
+                }
+                long remaining = deadline.remainingNanos();
+                if (remaining <= 0) throw new SocketTimeoutException("timed out waiting for a connection to " + key);
+                if (remaining == Long.MAX_VALUE) {
+                    wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a connection to " + key);
+        } finally {
+            pending--;
+        }
+    }
+
+    private synchronized void release(String key, boolean reusable) {
+        Route route = routes.get(key);
+        route.leased--;
+        leased--;
+        if (reusable) {
+            route.idle.addLast(System.nanoTime());
+            idle++;
+        }
+        expireIdleCounts();
+        notifyAll();
+    }
+
+    /**
+     * wake the requests waiting for a connection, so that the aborted ones give up
+     */
+    synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * stop counting the idle entries older than the idle timeout; bookkeeping only, no socket is closed
+     */
+    private void expireIdleCounts() {
+        long now = System.nanoTime();
+        for (Iterator<Route> iterator = routes.values().iterator(); iterator.hasNext(); ) {
+            Route route = iterator.next();
+            while (!route.idle.isEmpty() && now - route.idle.peekFirst() > idleTimeout * 1_000_000L) {
+                route.idle.pollFirst();
+                idle--;
+                evicted++;
+            }
+            if (route.leased == 0 && route.idle.isEmpty()) iterator.remove();
+        }
+    }
+
+    /**
+     * @return the usage of the connections; the idle, reused and evicted counts are estimated from
+     * the responses handed back, not read from the keep-alive cache
+     */
+    synchronized HttpURLPoolStats getStats() {
+        expireIdleCounts();
+        return new HttpURLPoolStats(leased, idle, pending, created, reused, evicted);
+    }
+
+    private static final class Route {
+        private final ArrayDeque<Long> idle = new ArrayDeque<>();
+        private int leased = 0;
+    }
+
+    /**
+     * permission to use one connection, released exactly once
+     */
+    final class Lease {
+        private final String key;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(String key) {
+            this.key = key;
+        }
+
+        void release(boolean reusable) {
+            if (released.compareAndSet(false, true)) {
+                HttpURLConnectionPool.this.release(key, reusable);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * transport built on {@link HttpURLConnection}, whose keep-alive cache reuses the connections
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLConnectionTransport implements HttpURLTransport {
+    static final HttpURLConnectionTransport INSTANCE = new HttpURLConnectionTransport();
+
+    private HttpURLConnectionTransport() {
+    }
+
+    @Override
+    public HttpURLExchange newExchange(String method, URL url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        HttpURLConnection httpURLConnection = (HttpURLConnection) url.openConnection();
+        httpURLConnection.setRequestMethod(method);
+        httpURLConnection.setUseCaches(false);
+        httpURLConnection.setDoInput(true);
+        if (connectTimeout > 0) httpURLConnection.setConnectTimeout(connectTimeout);
+        if (readTimeout > 0) httpURLConnection.setReadTimeout(readTimeout);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            httpURLConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        return new Exchange(httpURLConnection);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLConnectionTransport";
+    }
+
+    private static final class Exchange implements HttpURLExchange {
+        private final HttpURLConnection httpURLConnection;
+
+        Exchange(HttpURLConnection httpURLConnection) {
+            this.httpURLConnection = httpURLConnection;
+        }
+
+        @Override
+        public void setRequestHeader(String name, String value) {
+            httpURLConnection.setRequestProperty(name, value);
+        }
+
+        @Override
+        public OutputStream openRequestBody(long contentLength) throws IOException {
+            if (contentLength >= 0) {
+                httpURLConnection.setFixedLengthStreamingMode(contentLength);
+            } else {
+                httpURLConnection.setChunkedStreamingMode(0);
+            }
+            httpURLConnection.setDoOutput(true);
+            return httpURLConnection.getOutputStream();
+        }
+
+        @Override
+        public void connect() throws IOException {
+            httpURLConnection.connect();
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            return httpURLConnection.getResponseCode();
+        }
+
+        @Override
+        public String getResponseMessage() throws IOException {
+            return httpURLConnection.getResponseMessage();
+        }
+
+        @Override
+        public URL getURL() {
+            return httpURLConnection.getURL();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaderFields() {
+            return httpURLConnection.getHeaderFields();
+        }
+
+        @Override
+        public InputStream getResponseBody() throws IOException {
+            int responseCode = httpURLConnection.getResponseCode();
+            InputStream inputStream = responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? httpURLConnection.getInputStream() : httpURLConnection.getErrorStream();
+            return inputStream != null ? inputStream : InputStream.nullInputStream();
+        }
+
+        @Override
+        public void release() {
+            // closing the drained body hands the socket back to the keep-alive cache
+        }
+
+        @Override
+        public void disconnect() {
+            httpURLConnection.disconnect();
+        }
+    }
+}
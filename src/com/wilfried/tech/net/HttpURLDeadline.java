@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time left to a call, shared by all the blocking steps and attempts of a request
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLDeadline {
+    static final HttpURLDeadline NONE = new HttpURLDeadline(0, 0);
+
+    private final long timeout;
+    private final long deadlineNanos;
+
+    private HttpURLDeadline(long timeout, long deadlineNanos) {
+        this.timeout = timeout;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * @param timeout time budget in milliseconds, or {@code 0} for none
+     */
+    static HttpURLDeadline after(long timeout) {
+        if (timeout <= 0) return NONE;
+        return new HttpURLDeadline(timeout, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+    }
+
+    boolean isBounded() {
+        return timeout > 0;
+    }
+
+    /**
+     * @return nanoseconds left, {@link Long#MAX_VALUE} without deadline
+     */
+    long remainingNanos() {
+        return isBounded() ? deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * @param timeout a timeout of a single step in milliseconds, {@code 0} for none
+     * @return {@code timeout} reduced to the time left, at least 1 ms since {@code 0} means no timeout
+     */
+    int clamp(int timeout) {
+        if (!isBounded()) return timeout;
+        long remaining = Math.max(1, TimeUnit.NANOSECONDS.toMillis(remainingNanos()));
+        return (int) (timeout > 0 ? Math.min(timeout, remaining) : Math.min(remaining, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param delay a wait in milliseconds
+     * @return whether the deadline leaves more than {@code delay}
+     */
+    boolean allows(long delay) {
+        return TimeUnit.MILLISECONDS.toNanos(delay) < remainingNanos();
+    }
+
+    /**
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    void check() throws SocketTimeoutException {
+        if (isExpired()) throw exceeded();
+    }
+
+    SocketTimeoutException exceeded() {
+        return new SocketTimeoutException("call timeout of " + timeout + " ms exceeded");
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * {@code HttpURLDownloader} saves a resource to a file without buffering it in memory.
+ * <p>
+ * When the server supports {@code Range} requests, the resource is split into segments
+ * fetched in parallel, each one written at its offset of the file. The progress of the
+ * segments is saved next to the file in a {@code .download} file, so that an interrupted
+ * download resumes where it stopped, as long as the resource did not change.
+ * Servers ignoring ranges are downloaded with a single request.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLDownloader {
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final String STATE_SUFFIX = ".download";
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    private static final long STATE_SAVE_INTERVAL = 4 * 1024 * 1024;
+
+    private final HttpURLClient client;
+    private final Map<String, String> headers = new HashMap<>();
+    private int segmentCount = DEFAULT_SEGMENT_COUNT;
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private boolean resume = true;
+    private Executor executor = HttpURLExecutors.defaultExecutor();
+
+    public HttpURLDownloader() {
+        this(null);
+    }
+
+    /**
+     * @param client client whose connections are used, or {@code null}
+     */
+    public HttpURLDownloader(HttpURLClient client) {
+        this.client = client;
+        if (client != null) executor = client.getExecutor();
+    }
+
+    /**
+     * @param segmentCount maximum number of segments downloaded in parallel
+     */
+    public void setSegmentCount(int segmentCount) {
+        if (segmentCount <= 0) throw new IllegalArgumentException("segmentCount must be positive");
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * @param minSegmentSize smallest segment worth a request of its own, in bytes
+     */
+    public void setMinSegmentSize(long minSegmentSize) {
+        if (minSegmentSize <= 0) throw new IllegalArgumentException("minSegmentSize must be positive");
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * @param resume {@code true} to continue a download interrupted earlier, {@code false} to always start over
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public void setExecutor(@NotNull Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * set a header sent with every request of the download
+     */
+    public void setRequestHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * download {@code url} into {@code path}
+     *
+     * @param url  resource to download
+     * @param path destination file
+     * @return the size of the downloaded file
+     * @throws IOException if the download fails; when the server supports ranges, it can be resumed
+     */
+    public long download(@NotNull String url, @NotNull Path path) throws IOException {
+        Path statePath = path.resolveSibling(path.getFileName() + STATE_SUFFIX);
+
+        // probe with the first byte: a 206 tells that ranges are supported and gives the total length;
+        // the probe is closed before the segments are requested, so that it does not hold a connection
+        HttpURLRequest probe = newRequest(url);
+        probe.setRequestHeader("Range", "bytes=0-0");
+        long length = -1;
+        String validator = null;
+        try (HttpURLResponse response = probe.send()) {
+            if (response.getResponseCode() != HTTP_RANGE_NOT_SATISFIABLE) {
+                length = parseTotalLength(response.getHeaders().getFirst("Content-Range"));
+                if (response.getResponseCode() != HttpURLRequest.HTTP_PARTIAL || length < 0) {
+                    checkSuccess(response);
+                    Files.deleteIfExists(statePath);
+                    return downloadWhole(response, path);
+                }
+                validator = getValidator(response);
+            }
+        }
+        if (length < 0) {
+            // an empty resource has no first byte to probe
+            Files.deleteIfExists(statePath);
+            try (HttpURLResponse response = newRequest(url).send()) {
+                checkSuccess(response);
+                return downloadWhole(response, path);
+            }
+        }
+        DownloadState state = resume ? DownloadState.load(statePath, url, length, validator) : null;
+        if (state == null) {
+            int segments = (int) Math.max(1, Math.min(segmentCount, length / minSegmentSize));
+            state = new DownloadState(statePath, url, length, validator, segments);
+        }
+        downloadSegments(state, path);
+        Files.deleteIfExists(statePath);
+        return length;
+    }
+
+    private long downloadWhole(HttpURLResponse response, Path path) throws IOException {
+        try (InputStream inputStream = response.getResponseStream();
+             OutputStream outputStream = Files.newOutputStream(path)) {
+            return inputStream.transferTo(outputStream);
+        }
+    }
+
+    private void downloadSegments(DownloadState state, Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (fileChannel.size() > state.length) fileChannel.truncate(state.length);
+            List<HttpURLRequest> requests = new ArrayList<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < state.segments; i++) {
+                if (state.isComplete(i)) continue;
+                HttpURLRequest request = newRequest(state.url);
+                requests.add(request);
+                int segment = i;
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        downloadSegment(request, state, segment, fileChannel);
+                    } catch (IOException e) {
+                        throw new HttpURLRequestException(e);
+                    }
+                }, executor));
+            }
+            try {
+                for (CompletableFuture<Void> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                for (HttpURLRequest request : requests) request.abort();
+                Throwable cause = e.getCause() instanceof HttpURLRequestException && e.getCause().getCause() != null ? e.getCause().getCause() : e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                throw new HttpURLRequestException("segment download failed", cause);
+            } catch (InterruptedException e) {
+                for (HttpURLRequest request : requests) request.abort();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("download interrupted");
+            } finally {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).exceptionally(e -> null).join();
+                state.save();
+            }
+        }
+    }
+
+    private void downloadSegment(HttpURLRequest request, DownloadState state, int segment, FileChannel fileChannel) throws IOException {
+        long position = state.getPosition(segment);
+        long end = state.getEnd(segment);
+        request.setRequestHeader("Range", "bytes=" + position + "-" + end);
+        if (state.validator != null) request.setRequestHeader("If-Range", state.validator);
+        try (HttpURLResponse response = request.send()) {
+            if (response.getResponseCode() != HttpURLRequest.HTTP_PARTIAL) {
+                checkSuccess(response);
+                throw new IOException("the resource changed while it was downloaded: " + state.url);
+            }
+            InputStream inputStream = response.getResponseStream();
+            byte[] buffer = new byte[64 * 1024];
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+            long unsaved = 0;
+            int read;
+            while (position <= end && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - position + 1))) != -1) {
+                byteBuffer.clear().limit(read);
+                while (byteBuffer.hasRemaining()) {
+                    position += fileChannel.write(byteBuffer, position);
+                }
+                state.setPosition(segment, position);
+                unsaved += read;
+                if (unsaved >= STATE_SAVE_INTERVAL) {
+                    fileChannel.force(false);
+                    state.save();
+                    unsaved = 0;
+                }
+            }
+            if (position <= end) {
+                throw new IOException("segment " + segment + " ended " + (end - position + 1) + " bytes early");
+            }
+        }
+    }
+
+    private HttpURLRequest newRequest(String url) throws IOException {
+        HttpURLRequest request = client != null ? client.newRequest() : new HttpURLRequest();
+        request.open("GET", url);
+        request.setResponseMode(HttpURLResponseMode.STREAMING);
+        request.setContentDecoding(false);
+        // the probe and the segments must reach the server, which answers their ranges
+        request.setCache(null);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.setRequestHeader(header.getKey(), header.getValue());
+        }
+        return request;
+    }
+
+    private static void checkSuccess(HttpURLResponse response) throws IOException {
+        if (response.getResponseCode() < HttpURLRequest.HTTP_OK || response.getResponseCode() >= HttpURLRequest.HTTP_MULT_CHOICE) {
+            throw new IOException("download failed: " + response.getResponseCode() + " " + response.getStatusText());
+        }
+    }
+
+    private static String getValidator(HttpURLResponse response) {
+        String etag = response.getHeaders().getETag();
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return response.getHeaders().getFirst("Last-Modified");
+    }
+
+    /**
+     * @return the total length of a {@code Content-Range: bytes first-last/length} header, or {@code -1}
+     */
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) return -1;
+        int slash = contentRange.lastIndexOf('/');
+        try {
+            return slash < 0 ? -1 : Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * segments of a download and how far each one went
+     */
+    private static final class DownloadState {
+        private final Path statePath;
+        private final String url;
+        private final long length;
+        private final String validator;
+        private final int segments;
+        private final long[] starts;
+        private final long[] positions;
+
+        DownloadState(Path statePath, String url, long length, String validator, int segments) {
+            this.statePath = statePath;
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.segments = segments;
+            this.starts = new long[segments];
+            this.positions = new long[segments];
+            for (int i = 0; i < segments; i++) {
+                starts[i] = length / segments * i;
+                positions[i] = starts[i];
+            }
+        }
+
+        static DownloadState load(Path statePath, String url, long length, String validator) {
+            if (validator == null || !Files.isRegularFile(statePath)) return null;
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(statePath, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+                if (!url.equals(properties.getProperty("url")) || !validator.equals(properties.getProperty("validator"))
+                        || length != Long.parseLong(properties.getProperty("length"))) {
+                    return null;
+                }
+                DownloadState state = new DownloadState(statePath, url, length, validator, Integer.parseInt(properties.getProperty("segments")));
+                for (int i = 0; i < state.segments; i++) {
+                    long position = Long.parseLong(properties.getProperty("segment." + i));
+                    if (position < state.starts[i] || position > state.getEnd(i) + 1) return null;
+                    state.positions[i] = position;
+                }
+                return state;
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        long getEnd(int segment) {
+            return segment == segments - 1 ? length - 1 : starts[segment + 1] - 1;
+        }
+
+        synchronized long getPosition(int segment) {
+            return positions[segment];
+        }
+
+        synchronized void setPosition(int segment, long position) {
+            positions[segment] = position;
+        }
+
+        synchronized boolean isComplete(int segment) {
+            return positions[segment] > getEnd(segment);
+        }
+
+        synchronized void save() throws IOException {
+            if (validator == null) return;
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            properties.setProperty("length", Long.toString(length));
+            properties.setProperty("validator", validator);
+            properties.setProperty("segments", Integer.toString(segments));
+            for (int i = 0; i < segments; i++) {
+                properties.setProperty("segment." + i, Long.toString(positions[i]));
+            }
+            Path temp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+            try (OutputStream outputStream = Files.newOutputStream(temp)) {
+                properties.store(outputStream, null);
+            }
+            Files.move(temp, statePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
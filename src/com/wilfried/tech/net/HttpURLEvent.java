@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.net.URL;
+
+/**
+ * A step of the life of a request, passed to an {@link HttpURLEventListener}.
+ * <p>
+ * Timestamps come from {@link System#nanoTime()} and are only meaningful relative to each other.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLEvent {
+    private final String method;
+    private final URL url;
+    private final String host;
+    private final long startNanos;
+    private final long nanos;
+    private final long bytes;
+    private final int responseCode;
+
+    HttpURLEvent(String method, URL url, String host, long startNanos, long nanos, long bytes, int responseCode) {
+        this.method = method;
+        this.url = url;
+        this.host = host;
+        this.startNanos = startNanos;
+        this.nanos = nanos;
+        this.bytes = bytes;
+        this.responseCode = responseCode;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * @return host of the request, followed by its port when one is given in the URL
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return when the request started, in nanoseconds
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return when this event happened, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return time elapsed between the start of the request and this event, in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return nanos - startNanos;
+    }
+
+    /**
+     * @return number of body bytes sent or received, as they crossed the wire, or {@code -1} if not relevant
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the response code, or {@code -1} before the response headers are received
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLEvent{" + method + " " + url + ", elapsed=" + getElapsedNanos() + "ns, bytes=" + bytes + ", responseCode=" + responseCode + "}";
+    }
+}
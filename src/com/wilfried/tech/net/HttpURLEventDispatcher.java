@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.net.URL;
+
+/**
+ * Builds the events of one request and passes them to its listener
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLEventDispatcher {
+    private final HttpURLEventListener listener;
+    private final String method;
+    private final URL url;
+    private final String host;
+    private final long startNanos = System.nanoTime();
+    private volatile int responseCode = -1;
+    private volatile boolean finished = false;
+
+    HttpURLEventDispatcher(HttpURLEventListener listener, String method, URL url) {
+        this.listener = listener;
+        this.method = method;
+        this.url = url;
+        this.host = url.getPort() == -1 ? url.getHost() : url.getHost() + ":" + url.getPort();
+    }
+
+    private HttpURLEvent event(long bytes) {
+        return new HttpURLEvent(method, url, host, startNanos, System.nanoTime(), bytes, responseCode);
+    }
+
+    void requestStart() {
+        if (listener != null) listener.onRequestStart(event(-1));
+    }
+
+    void connectionAcquired() {
+        if (listener != null) listener.onConnectionAcquired(event(-1));
+    }
+
+    void requestBodyWritten(long bytes) {
+        if (listener != null) listener.onRequestBodyWritten(event(bytes));
+    }
+
+    void responseHeaders(int responseCode) {
+        this.responseCode = responseCode;
+        if (listener != null) listener.onResponseHeaders(event(-1));
+    }
+
+    void bodyCompleted(long bytes) {
+        if (finished) return;
+        finished = true;
+        if (listener != null) listener.onBodyCompleted(event(bytes));
+    }
+
+    void failure(Throwable exception) {
+        if (finished) return;
+        finished = true;
+        if (listener != null) listener.onFailure(event(-1), exception);
+    }
+}
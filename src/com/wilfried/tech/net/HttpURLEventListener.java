@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+/**
+ * Receives the steps of the requests it is registered on.
+ * <p>
+ * The methods are called on the thread running the request and must return quickly.
+ * A listener shared between requests must be thread-safe.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @see HttpURLMetrics
+ * @since 1.1
+ */
+public interface HttpURLEventListener {
+
+    /**
+     * the request is about to be sent, or served from a cache
+     */
+    default void onRequestStart(HttpURLEvent event) {
+    }
+
+    /**
+     * a connection to the server is established
+     */
+    default void onConnectionAcquired(HttpURLEvent event) {
+    }
+
+    /**
+     * the request body has been sent; {@link HttpURLEvent#getBytes()} is its size
+     */
+    default void onRequestBodyWritten(HttpURLEvent event) {
+    }
+
+    /**
+     * the status line and headers of the response have been received
+     */
+    default void onResponseHeaders(HttpURLEvent event) {
+    }
+
+    /**
+     * the response body has been read to its end; {@link HttpURLEvent#getBytes()} is its size
+     */
+    default void onBodyCompleted(HttpURLEvent event) {
+    }
+
+    /**
+     * the request failed; no other event follows
+     */
+    default void onFailure(HttpURLEvent event, Throwable exception) {
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * {@code HttpURLEventStream} consumes a {@code text/event-stream} resource (Server-Sent Events).
+ * <p>
+ * The stream is parsed as it arrives and its events are published to a single
+ * {@link Flow.Subscriber}: the connection is only read while the subscriber has demand, so a slow
+ * subscriber slows the server down instead of buffering events. When the connection is lost, or
+ * stays silent longer than the idle timeout, the stream reconnects after the reconnect delay and
+ * sends the {@code Last-Event-ID} it received, so that the server can resume where it stopped.
+ * A {@code 204 No Content} response ends the stream; any other response than {@code 200} with the
+ * {@code text/event-stream} type fails it.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLEventStream implements Flow.Publisher<HttpURLServerSentEvent> {
+    public static final long DEFAULT_RECONNECT_DELAY = 3000;
+
+    private final HttpURLClient client;
+    private final String url;
+    private final Map<String, String> headers = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile long reconnectDelay = DEFAULT_RECONNECT_DELAY;
+    private volatile long idleTimeout = 0;
+    private volatile boolean reconnect = true;
+    private volatile String lastEventId = null;
+    private volatile Executor executor = HttpURLExecutors.defaultExecutor();
+
+    public HttpURLEventStream(@NotNull String url) {
+        this(null, url);
+    }
+
+    /**
+     * @param client client whose connections are used, or {@code null}
+     * @param url    URL of the event stream
+     */
+    public HttpURLEventStream(HttpURLClient client, @NotNull String url) {
+        this.client = client;
+        this.url = Objects.requireNonNull(url);
+        if (client != null) executor = client.getExecutor();
+    }
+
+    /**
+     * set a header sent with every connection of the stream
+     */
+    public void setRequestHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    /**
+     * @param reconnectDelay delay in milliseconds before reconnecting, until the server sets another one with {@code retry}
+     */
+    public void setReconnectDelay(long reconnectDelay) {
+        if (reconnectDelay < 0) throw new IllegalArgumentException("reconnectDelay is negative");
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * @param idleTimeout time in milliseconds without any line from the server after which the connection is
+     *                    considered lost, or {@code 0} to wait forever; servers usually send comments to keep streams alive
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0) throw new IllegalArgumentException("idleTimeout is negative");
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @param reconnect {@code false} to end the stream when its connection is lost
+     */
+    public void setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * @param lastEventId id sent in {@code Last-Event-ID} by the first connection, to resume an earlier stream
+     */
+    public void setLastEventId(String lastEventId) {
+        this.lastEventId = lastEventId;
+    }
+
+    /**
+     * @return the id of the last event received, or {@code null}
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    /**
+     * @param executor executor running the thread reading the stream
+     */
+    public void setExecutor(@NotNull Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * connect and publish the events to {@code subscriber}; a stream accepts a single subscriber
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super HttpURLServerSentEvent> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("an event stream accepts a single subscriber"));
+            return;
+        }
+        EventSubscription subscription = new EventSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        executor.execute(subscription);
+    }
+
+    /**
+     * connect and pass every event to {@code action} on the thread reading the stream
+     *
+     * @param action the callback
+     * @return a future completed when the stream ends; cancelling it closes the stream
+     */
+    public CompletableFuture<Void> forEach(@NotNull Consumer<? super HttpURLServerSentEvent> action) {
+        Objects.requireNonNull(action);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        subscribe(new Flow.Subscriber<HttpURLServerSentEvent>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                future.whenComplete((result, e) -> subscription.cancel());
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(HttpURLServerSentEvent event) {
+                action.accept(event);
+            }
+
+            @Override
+            public void onError(Throwable e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onComplete() {
+                future.complete(null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * the connections of a stream to its subscriber, run on the executor
+     */
+    private final class EventSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super HttpURLServerSentEvent> subscriber;
+        private long demand = 0;
+        private Throwable invalidRequest = null;
+        private volatile boolean cancelled = false;
+        private volatile HttpURLRequest request = null;
+        private volatile boolean reading = false;
+        private volatile long lastActivity = 0;
+        private volatile boolean timedOut = false;
+
+        EventSubscription(Flow.Subscriber<? super HttpURLServerSentEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("non-positive subscription request: " + n);
+                abortRequest();
+            } else {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            cancelled = true;
+            abortRequest();
+            notifyAll();
+        }
+
+        private void abortRequest() {
+            HttpURLRequest request = this.request;
+            if (request != null) request.abort();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isDone()) {
+                    try {
+                        if (!connect()) break;
+                    } catch (IOException e) {
+                        if (isDone()) break;
+                        if (!reconnect) throw e;
+                    }
+                    if (!reconnect || !waitReconnectDelay()) break;
+                }
+            } catch (Throwable e) {
+                if (!cancelled) subscriber.onError(invalidRequest != null ? invalidRequest : e);
+                return;
+            }
+            if (invalidRequest != null) {
+                subscriber.onError(invalidRequest);
+            } else if (!cancelled) {
+                subscriber.onComplete();
+            }
+        }
+
+        private synchronized boolean isDone() {
+            return cancelled || invalidRequest != null;
+        }
+
+        /**
+         * read one connection of the stream
+         *
+         * @return {@code false} if the server ended the stream
+         */
+        private boolean connect() throws IOException {
+            HttpURLRequest request = client != null ? client.newRequest() : new HttpURLRequest();
+            request.open("GET", url);
+            request.setResponseMode(HttpURLResponseMode.STREAMING);
+            request.setCache(null);
+            // the read timeout catches idle connections on transports whose reads cannot be aborted
+            if (idleTimeout > 0) request.setTimeOut((int) Math.min(idleTimeout, Integer.MAX_VALUE));
+            request.setRequestHeader("Accept", "text/event-stream");
+            request.setRequestHeader("Cache-Control", "no-cache");
+            String lastEventId = HttpURLEventStream.this.lastEventId;
+            if (lastEventId != null) request.setRequestHeader("Last-Event-ID", lastEventId);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.setRequestHeader(header.getKey(), header.getValue());
+            }
+            this.request = request;
+            if (isDone()) return false;
+            timedOut = false;
+            ScheduledFuture<?> watchdog = idleTimeout > 0 ? scheduleWatchdog(idleTimeout) : null;
+            try {
+                lastActivity = System.nanoTime();
+                reading = true;
+                try (HttpURLResponse response = request.send()) {
+                    reading = false;
+                    if (response.getResponseCode() == HttpURLRequest.HTTP_NO_CONTENT) return false;
+                    String contentType = response.getResponseType();
+                    if (response.getResponseCode() != HttpURLRequest.HTTP_OK || contentType == null
+                            || !contentType.toLowerCase().startsWith("text/event-stream")) {
+                        throw new HttpURLRequestException("not an event stream: " + response.getResponseCode() + " " + contentType);
+                    }
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(response.getResponseStream(), StandardCharsets.UTF_8));
+                    parse(reader);
+                    return true;
+                }
+            } catch (HttpURLRequestException e) {
+                // an aborted request is a lost connection, not a failure of the stream
+                if (timedOut || isDone()) throw new IOException(timedOut ? "event stream idle for " + idleTimeout + " ms" : "event stream closed", e);
+                throw e;
+            } finally {
+                reading = false;
+                if (watchdog != null) watchdog.cancel(false);
+            }
+        }
+
+        private void parse(BufferedReader reader) throws IOException {
+            StringBuilder data = new StringBuilder();
+            String event = null;
+            String id = lastEventId;
+            boolean first = true;
+            String line;
+            while (true) {
+                lastActivity = System.nanoTime();
+                reading = true;
+                line = reader.readLine();
+                reading = false;
+                if (line == null || isDone()) return;
+                if (first && line.startsWith("\uFEFF")) line = line.substring(1);
+                first = false;
+                if (line.isEmpty()) {
+                    lastEventId = id;
+                    if (data.length() > 0) {
+                        data.setLength(data.length() - 1);
+                        if (!publish(new HttpURLServerSentEvent(id, event == null ? "message" : event, data.toString()))) return;
+                    }
+                    data.setLength(0);
+                    event = null;
+                    continue;
+                }
+                if (line.startsWith(":")) continue;
+                int colon = line.indexOf(':');
+                String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(line.startsWith(" ", colon + 1) ? colon + 2 : colon + 1);
+                switch (field) {
+                    case "data":
+                        data.append(value).append('\n');
+                        break;
+                    case "event":
+                        event = value;
+                        break;
+                    case "id":
+                        if (value.indexOf('\0') < 0) id = value;
+                        break;
+                    case "retry":
+                        if (!value.isEmpty() && value.chars().allMatch(Character::isDigit)) {
+                            try {
+                                reconnectDelay = Long.parseLong(value);
+                            } catch (NumberFormatException ignored) {
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        /**
+         * wait for demand, then hand the event to the subscriber
+         *
+         * @return {@code false} if the subscription ended meanwhile
+         */
+        private boolean publish(HttpURLServerSentEvent event) throws IOException {
+            synchronized (this) {
+                while (demand == 0 && !isDone()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while waiting for demand");
+                    }
+                }
+                if (isDone()) return false;
+                if (demand != Long.MAX_VALUE) demand--;
+            }
+            subscriber.onNext(event);
+            return true;
+        }
+
+        /**
+         * @return {@code false} if the subscription ended while waiting
+         */
+        private synchronized boolean waitReconnectDelay() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectDelay);
+            long remaining;
+            while (!isDone() && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return !isDone();
+        }
+
+        /**
+         * abort the connection when it stays idle longer than {@code idleTimeout} while being read
+         */
+        private ScheduledFuture<?> scheduleWatchdog(long idleTimeout) {
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            return HttpURLExecutors.scheduler().scheduleWithFixedDelay(() -> {
+                if (!timedOut && reading && System.nanoTime() - lastActivity >= timeoutNanos) {
+                    timedOut = true;
+                    // aborting can block until a pending read returns, which must not hold the scheduler
+                    HttpURLExecutors.defaultExecutor().execute(this::abortRequest);
+                }
+            }, Math.max(idleTimeout / 4, 1), Math.max(idleTimeout / 4, 1), TimeUnit.MILLISECONDS);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One request and its response, as carried by an {@link HttpURLTransport}.
+ * <p>
+ * Request headers may be added until the body is opened or {@link #connect()} is called.
+ * Once the response body has been read to its end and closed, {@link #release()} lets the
+ * transport reuse the connection; {@link #disconnect()} closes it instead, and can be called
+ * from another thread to abort the exchange.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public interface HttpURLExchange {
+
+    void setRequestHeader(String name, String value);
+
+    /**
+     * send the request headers and open the request body
+     *
+     * @param contentLength size of the body, or {@code -1} to send it chunked
+     * @return the stream receiving the body, which must be closed once the body is written
+     * @throws IOException if the connection fails
+     */
+    OutputStream openRequestBody(long contentLength) throws IOException;
+
+    /**
+     * send a request without body
+     *
+     * @throws IOException if the connection fails
+     */
+    void connect() throws IOException;
+
+    /**
+     * wait for the response headers
+     *
+     * @return the response code
+     * @throws IOException if the exchange fails
+     */
+    int getResponseCode() throws IOException;
+
+    /**
+     * @return the reason phrase of the response, {@code null} when the protocol has none
+     */
+    String getResponseMessage() throws IOException;
+
+    /**
+     * @return the URL of the response, which differs from the request URL after a redirect
+     */
+    URL getURL();
+
+    /**
+     * @return the response headers; with {@link java.net.HttpURLConnection}, the {@code null} key holds the status line
+     */
+    Map<String, List<String>> getHeaderFields();
+
+    /**
+     * @return the response body, whatever the response code
+     * @throws IOException if the exchange fails
+     */
+    InputStream getResponseBody() throws IOException;
+
+    /**
+     * let the transport reuse the connection once the response body has been consumed and closed
+     */
+    void release();
+
+    /**
+     * close the connection, aborting the exchange if it is still running
+     */
+    void disconnect();
+
+    /**
+     * to be called before {@link #connect()}, by transports that are {@link HttpURLTransport#isNonBlocking() non-blocking}
+     *
+     * @param buffered whether the whole body is wanted, or only the headers
+     * @return a future completed once the response headers, or the whole body, are received, or
+     * {@code null} if the transport cannot tell without a waiting thread
+     */
+    default CompletableFuture<Void> whenReceived(boolean buffered) {
+        return null;
+    }
+}
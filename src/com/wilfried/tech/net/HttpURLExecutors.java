@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared executors of the library
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLExecutors {
+
+    private HttpURLExecutors() {
+    }
+
+    /**
+     * @return the executor running asynchronous requests when none is configured:
+     * one virtual thread per task when the runtime supports them, a cached pool of daemon threads otherwise
+     */
+    static ExecutorService defaultExecutor() {
+        return DefaultExecutorHolder.EXECUTOR;
+    }
+
+    /**
+     * @return a single daemon thread running the timers of the library, which must return quickly
+     */
+    static ScheduledExecutorService scheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class DefaultExecutorHolder {
+        private static final ExecutorService EXECUTOR = create();
+
+        private static ExecutorService create() {
+            try {
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) method.invoke(null);
+            } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+                return Executors.newCachedThreadPool(daemonThreadFactory("HttpURLRequest-async"));
+            }
+        }
+    }
+
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("HttpURLRequest-scheduler"));
+            scheduler.setRemoveOnCancelPolicy(true);
+            return scheduler;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@code HttpURLHeaders} is a read-only, case-insensitive view of the headers of a response.
+ * <p>
+ * The view reads the headers as received, without copying them: lookups scan the few header
+ * names of the response, and a header sent several times, such as {@code Set-Cookie}, keeps
+ * all its values. The typed accessors parse their header on first use only.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLHeaders {
+    private static final long NOT_PARSED = Long.MIN_VALUE;
+
+    private final Map<String, List<String>> headerFields;
+    private volatile Map<String, List<String>> map = null;
+    private volatile Map<String, String> cacheControl = null;
+    private volatile long contentLength = NOT_PARSED;
+
+    /**
+     * @param headerFields headers as received; the {@code null} key holding the status line is ignored
+     */
+    HttpURLHeaders(Map<String, List<String>> headerFields) {
+        this.headerFields = headerFields;
+    }
+
+    /**
+     * @param name header name, in any case
+     * @return the first value of the header, or {@code null} if it is absent
+     */
+    public @Nullable String getFirst(@NotNull String name) {
+        for (Map.Entry<String, List<String>> header : headerFields.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param name header name, in any case
+     * @return every value of the header, in an unmodifiable list which is empty if the header is absent
+     */
+    public @NotNull List<String> getAll(@NotNull String name) {
+        List<String> values = null;
+        List<String> merged = null;
+        for (Map.Entry<String, List<String>> header : headerFields.entrySet()) {
+            if (!name.equalsIgnoreCase(header.getKey())) continue;
+            if (values == null) {
+                values = header.getValue();
+            } else {
+                // the same header received under names differing in case
+                if (merged == null) merged = new ArrayList<>(values);
+                merged.addAll(header.getValue());
+            }
+        }
+        if (merged != null) return Collections.unmodifiableList(merged);
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+
+    public boolean contains(@NotNull String name) {
+        return getFirst(name) != null;
+    }
+
+    /**
+     * @return the names of the headers, ordered case-insensitively
+     */
+    public @NotNull Set<String> getNames() {
+        return toMap().keySet();
+    }
+
+    /**
+     * @return the headers as an unmodifiable, case-insensitive map, built on the first call
+     */
+    public @NotNull Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = this.map;
+        if (map == null) {
+            TreeMap<String, List<String>> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (String name : headerFields.keySet()) {
+                if (name != null && !sorted.containsKey(name)) sorted.put(name, getAll(name));
+            }
+            map = Collections.unmodifiableMap(sorted);
+            this.map = map;
+        }
+        return map;
+    }
+
+    /**
+     * @return the value of {@code Content-Length}, or {@code -1} if it is absent or invalid
+     */
+    public long getContentLength() {
+        long contentLength = this.contentLength;
+        if (contentLength == NOT_PARSED) {
+            String value = getFirst("Content-Length");
+            try {
+                contentLength = value == null ? -1 : Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                contentLength = -1;
+            }
+            this.contentLength = contentLength;
+        }
+        return contentLength;
+    }
+
+    public @Nullable String getContentType() {
+        return getFirst("Content-Type");
+    }
+
+    /**
+     * @return the {@code charset} parameter of {@code Content-Type}, or {@code null} if it is absent or unsupported
+     */
+    public @Nullable Charset getCharset() {
+        String contentType = getContentType();
+        if (contentType == null) return null;
+        for (String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals < 0 || !parameter.substring(0, equals).trim().equalsIgnoreCase("charset")) continue;
+            String charset = parameter.substring(equals + 1).trim().replace("\"", "");
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    public @Nullable String getContentEncoding() {
+        return getFirst("Content-Encoding");
+    }
+
+    public @Nullable String getETag() {
+        return getFirst("ETag");
+    }
+
+    /**
+     * @return the directives of {@code Cache-Control}, case-insensitive, with an empty value for the directives without argument
+     */
+    public @NotNull Map<String, String> getCacheControl() {
+        Map<String, String> cacheControl = this.cacheControl;
+        if (cacheControl == null) {
+            cacheControl = Collections.unmodifiableMap(HttpURLCache.parseCacheControl(HttpURLCache.headerValue(headerFields, "Cache-Control")));
+            this.cacheControl = cacheControl;
+        }
+        return cacheControl;
+    }
+
+    /**
+     * @return the value of {@code Last-Modified} in milliseconds since the epoch, or {@code -1}
+     */
+    public long getLastModified() {
+        return getDate("Last-Modified");
+    }
+
+    /**
+     * @param name name of a header holding an HTTP date, such as {@code Date} or {@code Expires}
+     * @return the date in milliseconds since the epoch, or {@code -1} if it is absent or invalid
+     */
+    public long getDate(@NotNull String name) {
+        return HttpURLCache.parseDate(getFirst(name));
+    }
+
+    /**
+     * @return the headers as received, including the {@code null} key of {@link java.net.HttpURLConnection}
+     */
+    Map<String, List<String>> getHeaderFields() {
+        return headerFields;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+}
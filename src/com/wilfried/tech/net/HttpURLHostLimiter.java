@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@code HttpURLHostLimiter} paces the requests sent to each host and bounds how many are in flight.
+ * <p>
+ * Each host has a token bucket refilled at the configured rate, and a concurrency limit adapted
+ * from its responses: the limit grows by one every round of successful responses, and is halved
+ * when the host answers {@code 429} or {@code 503}, when a request
+ * times out, or when its recent latency exceeds the tolerated multiple of its baseline latency;
+ * the requests sent before a decrease do not decrease the limit again.
+ * A {@code Retry-After} received with a throttling response holds the host for the given delay.
+ * </p>
+ * <p>
+ * Requests waiting for a permit are served in their order of arrival, and give up with a
+ * {@link SocketTimeoutException} after the maximum wait. A request holds its permit until its
+ * response headers and, in buffered mode, its body are received.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLHostLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 8;
+    public static final int DEFAULT_MAX_LIMIT = 256;
+    public static final long DEFAULT_MAX_WAIT = 30_000;
+    public static final double DEFAULT_LATENCY_TOLERANCE = 2.0;
+
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /**
+     * number of responses the recent latency is averaged over
+     */
+    private static final int RECENT_WINDOW = 8;
+
+    /**
+     * number of responses the baseline takes to rise to a higher latency, letting it follow a slower route;
+     * it falls at once to a lower one
+     */
+    private static final int BASELINE_WINDOW = 128;
+
+    private final double permitsPerSecond;
+    private final int burst;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+    private volatile int initialLimit = DEFAULT_INITIAL_LIMIT;
+    private volatile int minLimit = 1;
+    private volatile int maxLimit = DEFAULT_MAX_LIMIT;
+    private volatile long maxWait = DEFAULT_MAX_WAIT;
+    private volatile double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+
+    /**
+     * @param permitsPerSecond requests started per second and per host, or {@code 0} for no rate limit
+     * @param burst            requests that may start at once after an idle period
+     */
+    public HttpURLHostLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond < 0) throw new IllegalArgumentException("permitsPerSecond is negative");
+        if (burst <= 0) throw new IllegalArgumentException("burst must be positive");
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * @param initialLimit requests in flight allowed to a host before any response
+     * @param minLimit     lowest limit the adaptation may reach
+     * @param maxLimit     highest limit the adaptation may reach
+     */
+    public void setConcurrency(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) throw new IllegalArgumentException("invalid concurrency limits");
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @param maxWait longest time in milliseconds a request waits for a permit
+     */
+    public void setMaxWait(long maxWait) {
+        if (maxWait < 0) throw new IllegalArgumentException("maxWait is negative");
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * @param latencyTolerance multiple of the baseline latency of a host above which its limit is decreased
+     */
+    public void setLatencyTolerance(double latencyTolerance) {
+        if (latencyTolerance < 1) throw new IllegalArgumentException("latencyTolerance must be at least 1");
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    /**
+     * @return the limits of the host of {@code url}, or {@code null} if no request was sent to it
+     */
+    public HttpURLLimiterStats getStats(@NotNull URL url) {
+        Host host = hosts.get(HttpURLConnectionPool.routeOf(url));
+        return host == null ? null : host.getStats();
+    }
+
+    /**
+     * @return the limits of every host, keyed by scheme, host and port
+     */
+    public Map<String, HttpURLLimiterStats> getStats() {
+        Map<String, HttpURLLimiterStats> stats = new TreeMap<>();
+        hosts.forEach((key, host) -> stats.put(key, host.getStats()));
+        return Collections.unmodifiableMap(stats);
+    }
+
+    /**
+     * wait until a request to {@code url} may start
+     *
+     * @param deadline  time left to the request
+     * @param cancelled tells whether the request was aborted, checked each time {@link #wakeUp()} is called
+     * @return the permit to release once the response is received
+     * @throws InterruptedIOException if the calling thread is interrupted, or the wait or the deadline passes
+     */
+    Permit acquire(URL url, HttpURLDeadline deadline, BooleanSupplier cancelled) throws InterruptedIOException {
+        String key = HttpURLConnectionPool.routeOf(url);
+        return hosts.computeIfAbsent(key, Host::new).acquire(deadline, cancelled);
+    }
+
+    /**
+     * wake the requests waiting for a permit, so that the aborted ones give up
+     */
+    void wakeUp() {
+        for (Host host : hosts.values()) {
+            synchronized (host) {
+                host.notifyAll();
+            }
+        }
+    }
+
+    private final class Host {
+        private final String key;
+        private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        private double tokens = burst;
+        private long refillTime = System.nanoTime();
+        private long pausedUntil = refillTime;
+        private double limit = initialLimit;
+        private int inFlight = 0;
+        private double recentLatency = 0;
+        private double baselineLatency = 0;
+        private long lastDecrease = 0;
+        private long granted = 0;
+        private long throttled = 0;
+        private long rejected = 0;
+
+        Host(String key) {
+            this.key = key;
+        }
+
+        synchronized Permit acquire(HttpURLDeadline deadline, BooleanSupplier cancelled) throws InterruptedIOException {
+            Object ticket = new Object();
+            queue.addLast(ticket);
+            long start = System.nanoTime();
+            long maxWait = TimeUnit.MILLISECONDS.toNanos(HttpURLHostLimiter.this.maxWait);
+            try {
+                while (true) {
+                    if (cancelled.getAsBoolean()) throw new HttpURLRequestException("request aborted");
+                    long now = System.nanoTime();
+                    refill(now);
+                    long wait = Long.MAX_VALUE;
+                    if (queue.peekFirst() == ticket && inFlight < Math.max(1, (int) limit)) {
+                        if (now - pausedUntil < 0) {
+                            wait = pausedUntil - now;
+                        } else if (permitsPerSecond > 0 && tokens < 1) {
+                            wait = (long) Math.ceil((1 - tokens) / permitsPerSecond * 1e9);
+                        } else {
+                            if (permitsPerSecond > 0) tokens--;
+                            inFlight++;
+                            granted++;
+                            return new Permit(this, now);
+                        }
+                    }
+                    long remaining = Math.min(maxWait - (now - start), deadline.remainingNanos());
+                    if (remaining <= 0) {
+                        rejected++;
+                        throw new SocketTimeoutException("timed out waiting for a permit to " + key);
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, Math.min(wait, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a permit to " + key);
+            } finally {
+                queue.remove(ticket);
+                // the next request in line may start
+                notifyAll();
+            }
+        }
+
+        private void refill(long now) {
+            if (permitsPerSecond <= 0) return;
+            tokens = Math.min(burst, tokens + (now - refillTime) * permitsPerSecond / 1e9);
+            refillTime = now;
+        }
+
+        /**
+         * @param start        time the permit was granted
+         * @param overloaded   whether the host signalled it is overloaded
+         * @param retryAfter   delay in milliseconds the host asked to wait, or {@code -1}
+         * @param latencyNanos time the request held its permit, or {@code -1} if it failed
+         */
+        synchronized void release(long start, boolean overloaded, long retryAfter, long latencyNanos) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (overloaded) {
+                throttled++;
+                if (retryAfter > 0) {
+                    long until = now + TimeUnit.MILLISECONDS.toNanos(Math.min(retryAfter, maxWait));
+                    if (until - pausedUntil > 0) pausedUntil = until;
+                }
+                decrease(start, now);
+            } else if (latencyNanos >= 0) {
+                if (baselineLatency == 0) {
+                    recentLatency = latencyNanos;
+                    baselineLatency = latencyNanos;
+                } else {
+                    recentLatency += (latencyNanos - recentLatency) / RECENT_WINDOW;
+                    baselineLatency = Math.min(recentLatency, baselineLatency + (recentLatency - baselineLatency) / BASELINE_WINDOW);
+                }
+                if (recentLatency > baselineLatency * latencyTolerance) {
+                    decrease(start, now);
+                } else if (inFlight + 1 >= (int) limit) {
+                    // grow only while the limit is what holds the requests back
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * decrease the limit, unless the request was sent before the last decrease took effect
+         */
+        private void decrease(long start, long now) {
+            if (lastDecrease != 0 && start - lastDecrease < 0) return;
+            limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+            lastDecrease = now;
+        }
+
+        synchronized HttpURLLimiterStats getStats() {
+            refill(System.nanoTime());
+            double availableTokens = permitsPerSecond > 0 ? tokens : Double.POSITIVE_INFINITY;
+            return new HttpURLLimiterStats((int) limit, inFlight, queue.size(), availableTokens, granted, throttled, rejected);
+        }
+    }
+
+    /**
+     * permission to send one request to a host, released exactly once
+     */
+    static final class Permit {
+        private final Host host;
+        private final long start;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Permit(Host host, long start) {
+            this.host = host;
+            this.start = start;
+        }
+
+        void release(HttpURLResponse response) {
+            if (!released.compareAndSet(false, true)) return;
+            int code = response.getResponseCode();
+            boolean overloaded = code == 429 || code == HttpURLRequest.HTTP_UNAVAILABLE;
+            long retryAfter = overloaded ? HttpURLRetryPolicy.parseRetryAfter(response.getResponseHeader("Retry-After")) : -1;
+            host.release(start, overloaded, retryAfter, System.nanoTime() - start);
+        }
+
+        void release(Throwable e) {
+            if (!released.compareAndSet(false, true)) return;
+            host.release(start, e instanceof SocketTimeoutException, -1, -1);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+/**
+ * Snapshot of the limits applied by an {@link HttpURLHostLimiter} to one host
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLLimiterStats {
+    private final int limit;
+    private final int inFlight;
+    private final int queued;
+    private final double availableTokens;
+    private final long granted;
+    private final long throttled;
+    private final long rejected;
+
+    HttpURLLimiterStats(int limit, int inFlight, int queued, double availableTokens, long granted, long throttled, long rejected) {
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.availableTokens = availableTokens;
+        this.granted = granted;
+        this.throttled = throttled;
+        this.rejected = rejected;
+    }
+
+    /**
+     * @return number of requests currently allowed in flight, as adapted from the responses
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return number of requests holding a permit
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return number of requests waiting for a permit
+     */
+    public int getQueued() {
+        return queued;
+    }
+
+    /**
+     * @return requests the token bucket lets start right now, {@link Double#POSITIVE_INFINITY} without rate limit
+     */
+    public double getAvailableTokens() {
+        return availableTokens;
+    }
+
+    /**
+     * @return number of permits granted
+     */
+    public long getGranted() {
+        return granted;
+    }
+
+    /**
+     * @return number of responses or timeouts telling that the host is overloaded
+     */
+    public long getThrottled() {
+        return throttled;
+    }
+
+    /**
+     * @return number of requests that gave up waiting for a permit
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLLimiterStats{limit=" + limit + ", inFlight=" + inFlight + ", queued=" + queued +
+                ", availableTokens=" + availableTokens + ", granted=" + granted + ", throttled=" + throttled + ", rejected=" + rejected + "}";
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link HttpURLEventListener} aggregating the latencies of the requests per host and per status class.
+ * <p>
+ * For each host and status class ({@code 2xx}, {@code 3xx}, {@code 4xx}, {@code 5xx}, or {@code failed}
+ * when no response was received), two {@link HttpURLLatencyHistogram} are kept: the time to the
+ * response headers, and the total time to the end of the response body. The same instance can be
+ * registered on any number of requests and clients.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public class HttpURLMetrics implements HttpURLEventListener {
+    public static final String FAILED = "failed";
+
+    private final Map<String, HttpURLLatencyHistogram> timeToFirstByte = new ConcurrentHashMap<>();
+    private final Map<String, HttpURLLatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * @param responseCode a response code, or {@code -1} if none was received
+     * @return the status class of the response, such as {@code 2xx}, or {@link #FAILED}
+     */
+    public static String statusClassOf(int responseCode) {
+        if (responseCode < 100 || responseCode > 599) return FAILED;
+        return responseCode / 100 + "xx";
+    }
+
+    private static String keyOf(String host, String statusClass) {
+        return host + " " + statusClass;
+    }
+
+    private static void record(Map<String, HttpURLLatencyHistogram> histograms, HttpURLEvent event) {
+        histograms.computeIfAbsent(keyOf(event.getHost(), statusClassOf(event.getResponseCode())), key -> new HttpURLLatencyHistogram())
+                .record(event.getElapsedNanos());
+    }
+
+    @Override
+    public void onResponseHeaders(HttpURLEvent event) {
+        record(timeToFirstByte, event);
+    }
+
+    @Override
+    public void onBodyCompleted(HttpURLEvent event) {
+        record(latencies, event);
+    }
+
+    @Override
+    public void onFailure(HttpURLEvent event, Throwable exception) {
+        record(latencies, event);
+    }
+
+    /**
+     * @return time from the start of the requests to the end of their response body, or {@code null} if none was recorded
+     */
+    public @Nullable HttpURLLatencyHistogram getLatency(String host, String statusClass) {
+        return latencies.get(keyOf(host, statusClass));
+    }
+
+    /**
+     * @return time from the start of the requests to their response headers, or {@code null} if none was recorded
+     */
+    public @Nullable HttpURLLatencyHistogram getTimeToFirstByte(String host, String statusClass) {
+        return timeToFirstByte.get(keyOf(host, statusClass));
+    }
+
+    /**
+     * @return the hosts and status classes with recorded latencies, as {@code "host statusClass"}
+     */
+    public Set<String> getKeys() {
+        Set<String> keys = new TreeSet<>(latencies.keySet());
+        keys.addAll(timeToFirstByte.keySet());
+        return Collections.unmodifiableSet(keys);
+    }
+
+    public void reset() {
+        latencies.clear();
+        timeToFirstByte.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (String key : getKeys()) {
+            report.append(key).append(": ttfb[").append(timeToFirstByte.get(key))
+                    .append("] total[").append(latencies.get(key)).append("]\n");
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/1.1 connection of {@link HttpURLNioTransport}, driven by the thread of its {@link HttpURLNioLoop}:
+ * requests are written as the socket accepts them, and responses are parsed as their bytes arrive,
+ * in the order of the requests when several are pipelined
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLNioConnection {
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_READS_PER_EVENT = 4;
+
+    private static final int STATUS_LINE = 0;
+    private static final int HEADER_LINE = 1;
+    private static final int FIXED_BODY = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_END = 5;
+    private static final int TRAILER_LINE = 6;
+    private static final int BODY_UNTIL_CLOSE = 7;
+
+    private final HttpURLNioTransport transport;
+    private final HttpURLNioLoop loop;
+    private final String route;
+    private final ArrayDeque<HttpURLNioExchange> exchanges = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> writes = new ArrayDeque<>();
+    private SocketChannel channel;
+    private SelectionKey key;
+    private HttpURLNioExchange uploading = null;
+    private boolean connected = false;
+    private boolean closed = false;
+    private boolean readingPaused = false;
+    private boolean reused = false;
+    private long connectDeadline = 0;
+    private long lastActivity = System.nanoTime();
+
+    private int state = STATUS_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength = 0;
+    private boolean responseStarted = false;
+    private boolean http10 = false;
+    private int responseCode;
+    private String responseMessage;
+    private Map<String, List<String>> responseHeaders;
+    private boolean keepAlive;
+    private boolean bodyWanted;
+    private long remaining;
+
+    HttpURLNioConnection(HttpURLNioTransport transport, HttpURLNioLoop loop, String route) {
+        this.transport = transport;
+        this.loop = loop;
+        this.route = route;
+    }
+
+    HttpURLNioLoop getLoop() {
+        return loop;
+    }
+
+    String getRoute() {
+        return route;
+    }
+
+    /**
+     * open the connection to the server of {@code exchange}, which is sent once it is established
+     */
+    void open(HttpURLNioExchange exchange) {
+        try {
+            if (exchange.getAddress().isUnresolved()) throw new UnknownHostException(exchange.getAddress().getHostString());
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            loop.register(this);
+            connected = channel.connect(exchange.getAddress());
+            key = channel.register(loop.getSelector(), connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (exchange.getConnectTimeout() > 0) {
+                connectDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(exchange.getConnectTimeout());
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            exchange.setConnection(this);
+            exchanges.add(exchange);
+            close(e instanceof IOException ? (IOException) e : new IOException("transport closed"));
+            return;
+        }
+        send(exchange);
+    }
+
+    void finishConnect() throws IOException {
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            ConnectException connectException = new ConnectException(e.getMessage());
+            connectException.initCause(e);
+            throw connectException;
+        }
+        connected = true;
+        lastActivity = System.nanoTime();
+        key.interestOps(SelectionKey.OP_READ);
+        flush();
+    }
+
+    /**
+     * write the request of {@code exchange}, whose response is read after those of the requests before it
+     */
+    void send(HttpURLNioExchange exchange) {
+        if (closed) {
+            // the server closed the connection after it was chosen
+            transport.dispatch(exchange);
+            return;
+        }
+        exchange.setConnection(this);
+        if (exchanges.isEmpty()) lastActivity = System.nanoTime();
+        exchanges.add(exchange);
+        writes.addAll(Arrays.asList(exchange.getRequest()));
+        if (exchange.hasRequestBody()) uploading = exchange;
+        if (!connected) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * write the part of the request body its caller went on writing
+     */
+    void resumeWriting() {
+        if (closed) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+
+    /**
+     * write as much of the pending requests as the socket accepts, through the direct buffer of the loop
+     */
+    void flush() throws IOException {
+        if (!connected) return;
+        ByteBuffer buffer = loop.getWriteBuffer();
+        while (hasWrites()) {
+            buffer.clear();
+            for (ByteBuffer source : writes) {
+                if (!buffer.hasRemaining()) break;
+                ByteBuffer part = source.duplicate();
+                if (part.remaining() > buffer.remaining()) part.limit(part.position() + buffer.remaining());
+                buffer.put(part);
+            }
+            buffer.flip();
+            int written = channel.write(buffer);
+            while (!writes.isEmpty()) {
+                ByteBuffer source = writes.peek();
+                int count = Math.min(written, source.remaining());
+                source.position(source.position() + count);
+                written -= count;
+                if (source.hasRemaining()) break;
+                writes.poll();
+            }
+            if (buffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * @return whether a request remains to be written, taking the next part of the streamed body
+     * once everything before it is written
+     */
+    private boolean hasWrites() {
+        if (writes.isEmpty() && uploading != null) {
+            ByteBuffer part = uploading.pollRequestBody();
+            if (part != null) {
+                writes.add(part);
+            } else if (uploading.isRequestBodySent()) {
+                uploading = null;
+                // the read timeout runs from the end of the request
+                lastActivity = System.nanoTime();
+            }
+        }
+        return !writes.isEmpty();
+    }
+
+    void read() throws IOException {
+        ByteBuffer buffer = loop.getReadBuffer();
+        for (int i = 0; i < MAX_READS_PER_EVENT && !closed && !readingPaused; i++) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read == -1) {
+                onEndOfStream();
+                return;
+            }
+            if (read == 0) return;
+            lastActivity = System.nanoTime();
+            buffer.flip();
+            parse(buffer);
+            if (read < buffer.capacity()) return;
+        }
+    }
+
+    private void parse(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && !closed) {
+            HttpURLNioExchange exchange = exchanges.peek();
+            if (exchange == null) throw new ProtocolException("unexpected data from the server");
+            responseStarted = true;
+            switch (state) {
+                case FIXED_BODY:
+                case CHUNK_DATA:
+                case BODY_UNTIL_CLOSE: {
+                    int count = (int) Math.min(buffer.remaining(), state == BODY_UNTIL_CLOSE ? Integer.MAX_VALUE : remaining);
+                    if (bodyWanted) {
+                        byte[] chunk = new byte[count];
+                        buffer.get(chunk);
+                        if (exchange.onBody(chunk)) pauseReading();
+                    } else {
+                        buffer.position(buffer.position() + count);
+                    }
+                    if (state == BODY_UNTIL_CLOSE) break;
+                    remaining -= count;
+                    if (remaining == 0) {
+                        if (state == FIXED_BODY) {
+                            complete();
+                        } else {
+                            state = CHUNK_END;
+                        }
+                    }
+                    break;
+                }
+                default:
+                    if (readLine(buffer)) onLine(new String(line, 0, lineLength, StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    /**
+     * @return whether a whole line, without its terminator, is in {@link #line}
+     */
+    private boolean readLine(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') lineLength--;
+                return true;
+            }
+            if (lineLength == line.length) {
+                if (lineLength == MAX_LINE_LENGTH) throw new ProtocolException("response line longer than " + MAX_LINE_LENGTH + " bytes");
+                line = Arrays.copyOf(line, Math.min(lineLength * 2, MAX_LINE_LENGTH));
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private void onLine(String text) throws IOException {
+        lineLength = 0;
+        switch (state) {
+            case STATUS_LINE:
+                if (text.isEmpty()) return;
+                parseStatusLine(text);
+                responseHeaders = new LinkedHashMap<>();
+                state = HEADER_LINE;
+                return;
+            case HEADER_LINE:
+                if (text.isEmpty()) {
+                    onHeaders();
+                    return;
+                }
+                int colon = text.indexOf(':');
+                if (colon <= 0) throw new ProtocolException("invalid response header: " + text);
+                responseHeaders.computeIfAbsent(text.substring(0, colon).trim(), name -> new ArrayList<>(1)).add(text.substring(colon + 1).trim());
+                return;
+            case CHUNK_SIZE:
+                int end = text.indexOf(';');
+                try {
+                    remaining = Long.parseLong((end < 0 ? text : text.substring(0, end)).trim(), 16);
+                } catch (NumberFormatException e) {
+                    throw new ProtocolException("invalid chunk size: " + text);
+                }
+                if (remaining < 0) throw new ProtocolException("invalid chunk size: " + text);
+                state = remaining == 0 ? TRAILER_LINE : CHUNK_DATA;
+                return;
+            case CHUNK_END:
+                if (!text.isEmpty()) throw new ProtocolException("missing CRLF after a chunk");
+                state = CHUNK_SIZE;
+                return;
+            case TRAILER_LINE:
+                if (text.isEmpty()) complete();
+                return;
+            default:
+                throw new IllegalStateException("no line expected in state " + state);
+        }
+    }
+
+    private void parseStatusLine(String text) throws ProtocolException {
+        String[] parts = text.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) throw new ProtocolException("invalid status line: " + text);
+        http10 = parts[0].equals("HTTP/1.0");
+        try {
+            responseCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("invalid status line: " + text);
+        }
+        responseMessage = parts.length == 3 ? parts[2] : "";
+    }
+
+    private void onHeaders() throws IOException {
+        if (responseCode >= 100 && responseCode < 200) {
+            // informational response, the final one follows
+            state = STATUS_LINE;
+            return;
+        }
+        HttpURLNioExchange exchange = exchanges.peek();
+        String connection = header("Connection");
+        keepAlive = http10 ? "keep-alive".equalsIgnoreCase(connection) : !"close".equalsIgnoreCase(connection);
+        bodyWanted = exchange.onHeaders(responseCode, responseMessage, responseHeaders);
+        String transferEncoding = header("Transfer-Encoding");
+        String contentLength = header("Content-Length");
+        if (exchange.isHead() || responseCode == HttpURLRequest.HTTP_NO_CONTENT || responseCode == HttpURLRequest.HTTP_NOT_MODIFIED) {
+            complete();
+        } else if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            state = CHUNK_SIZE;
+        } else if (contentLength != null) {
+            try {
+                remaining = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("invalid Content-Length: " + contentLength);
+            }
+            state = FIXED_BODY;
+            if (remaining == 0) complete();
+        } else {
+            keepAlive = false;
+            state = BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private String header(String name) {
+        for (Map.Entry<String, List<String>> header : responseHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) return header.getValue().get(0);
+        }
+        return null;
+    }
+
+    /**
+     * end the response of the first exchange, and reuse the connection if the server keeps it open
+     */
+    private void complete() {
+        HttpURLNioExchange exchange = exchanges.poll();
+        if (uploading != null) {
+            // the server answered before the whole body was sent, whose rest could be taken for the next request
+            uploading.failRequestBody(new IOException("the server answered before the request body was sent"));
+            uploading = null;
+            keepAlive = false;
+        }
+        state = STATUS_LINE;
+        responseStarted = false;
+        responseHeaders = null;
+        reused = true;
+        lastActivity = System.nanoTime();
+        if (readingPaused) resumeReading(null);
+        exchange.setConnection(null);
+        exchange.onComplete();
+        if (!keepAlive) {
+            close(new IOException("connection closed by the server"));
+            return;
+        }
+        transport.onComplete(this);
+    }
+
+    private void onEndOfStream() {
+        if (state == BODY_UNTIL_CLOSE) {
+            keepAlive = false;
+            complete();
+            return;
+        }
+        close(exchanges.isEmpty() ? null : new IOException("connection closed by the server before the response ended"));
+    }
+
+    /**
+     * stop reading while the caller reading the body lags behind
+     */
+    private void pauseReading() {
+        readingPaused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+    }
+
+    /**
+     * @param exchange the exchange whose caller caught up, or {@code null} to resume in any case
+     */
+    void resumeReading(HttpURLNioExchange exchange) {
+        if (closed || !readingPaused || exchange != null && exchanges.peek() != exchange) return;
+        readingPaused = false;
+        lastActivity = System.nanoTime();
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * fail the connection when it is too slow to connect or to answer
+     */
+    void sweep(long now) {
+        if (closed) return;
+        if (!connected) {
+            if (connectDeadline != 0 && now - connectDeadline > 0) close(new SocketTimeoutException("connect timed out"));
+            return;
+        }
+        HttpURLNioExchange exchange = exchanges.peek();
+        if (exchange == null) {
+            if (transport.isExpired(this, now)) close(null);
+            return;
+        }
+        long readTimeout = TimeUnit.MILLISECONDS.toNanos(exchange.getReadTimeout());
+        if (readTimeout > 0 && !readingPaused && uploading == null && now - lastActivity > readTimeout) {
+            close(new SocketTimeoutException("Read timed out"));
+        }
+    }
+
+    /**
+     * close the connection; the exchanges it still carries fail with {@code e}, except the idempotent
+     * requests the server did not start to answer, which are sent again
+     *
+     * @param e cause of the closing, {@code null} when the connection is idle
+     */
+    void close(IOException e) {
+        if (closed) return;
+        closed = true;
+        loop.unregister(this);
+        if (key != null) key.cancel();
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+        }
+        writes.clear();
+        uploading = null;
+        // the first request is sent again only if a reused connection was closed by the server before
+        // answering it; those pipelined behind were not answered at all
+        boolean first = true;
+        List<HttpURLNioExchange> retried = new ArrayList<>();
+        for (HttpURLNioExchange exchange; (exchange = exchanges.poll()) != null; first = false) {
+            exchange.setConnection(null);
+            boolean unanswered = !first || !responseStarted && reused && !(e instanceof SocketTimeoutException);
+            if (unanswered && exchange.isIdempotent() && !exchange.isDisconnected() && !exchange.isFailed()) {
+                retried.add(exchange);
+            } else {
+                exchange.fail(e != null ? e : new IOException("connection closed"));
+            }
+        }
+        transport.onClosed(this);
+        for (HttpURLNioExchange exchange : retried) transport.dispatch(exchange);
+    }
+}
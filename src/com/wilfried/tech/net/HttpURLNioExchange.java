@@ -0,0 +1,576 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * exchange of {@link HttpURLNioTransport}: the request is written by a selector thread, its body as
+ * the caller writes it through a bounded stream, and the parsed response is handed back through
+ * futures and another bounded stream
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLNioExchange implements HttpURLExchange {
+    private static final int MAX_REDIRECTS = 20;
+
+    private final HttpURLNioTransport transport;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final CompletableFuture<Void> headersReceived = new CompletableFuture<>();
+    private final CompletableFuture<Void> bodyReceived = new CompletableFuture<>();
+    private final BodyStream body = new BodyStream();
+    private volatile String method;
+    private volatile URL url;
+    private volatile boolean dispatched = false;
+    private volatile boolean disconnected = false;
+    private volatile HttpURLNioConnection connection = null;
+    private RequestBodyStream requestBody = null;
+    private InetSocketAddress address;
+    private ByteBuffer[] request;
+    private int redirects = 0;
+    private URL redirect = null;
+    private int responseCode;
+    private String responseMessage;
+    private Map<String, List<String>> responseHeaders;
+
+    HttpURLNioExchange(HttpURLNioTransport transport, String method, URL url, Map<String, String> headers, int connectTimeout, int readTimeout) {
+        this.transport = transport;
+        this.method = method;
+        this.url = url;
+        this.headers.putAll(headers);
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public void setRequestHeader(String name, String value) {
+        if (dispatched) throw new IllegalStateException("request already sent");
+        headers.put(name, value);
+    }
+
+    /**
+     * the request headers are sent as soon as a connection is free, then the body as it is written;
+     * writes wait while the socket lags behind, so the body is never held whole in memory
+     */
+    @Override
+    public OutputStream openRequestBody(long contentLength) throws IOException {
+        if (disconnected) throw new IOException("exchange disconnected");
+        if (dispatched) throw new IllegalStateException("request already sent");
+        requestBody = new RequestBodyStream(contentLength);
+        connect();
+        return requestBody;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (disconnected) throw new IOException("exchange disconnected");
+        if (dispatched) return;
+        dispatched = true;
+        prepare();
+        transport.dispatch(this);
+    }
+
+    /**
+     * serialize the request; the address of the server is resolved by {@link #resolve()}
+     */
+    private void prepare() {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        address = InetSocketAddress.createUnresolved(url.getHost(), port);
+        StringBuilder head = new StringBuilder(256);
+        String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) head.append(':').append(url.getPort());
+        head.append("\r\n");
+        boolean accept = false;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            String name = header.getKey();
+            if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding")) continue;
+            accept |= name.equalsIgnoreCase("Accept");
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (!accept) head.append("Accept: */*\r\n");
+        if (requestBody != null && requestBody.contentLength < 0) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (requestBody != null || method.equals("POST") || method.equals("PUT")) {
+            head.append("Content-Length: ").append(requestBody != null ? requestBody.contentLength : 0).append("\r\n");
+        }
+        head.append("\r\n");
+        request = new ByteBuffer[]{ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1))};
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        awaitHeaders();
+        return responseCode;
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+        awaitHeaders();
+        return responseMessage;
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        try {
+            awaitHeaders();
+        } catch (IOException e) {
+            throw new HttpURLRequestException(e);
+        }
+        return responseHeaders;
+    }
+
+    @Override
+    public InputStream getResponseBody() throws IOException {
+        awaitHeaders();
+        return body;
+    }
+
+    @Override
+    public void release() {
+        // the selector thread gives the connection back as soon as the body is received
+    }
+
+    @Override
+    public void disconnect() {
+        disconnected = true;
+        if (bodyReceived.isDone()) return;
+        IOException e = new IOException("exchange disconnected");
+        HttpURLNioConnection connection = this.connection;
+        if (connection != null) {
+            connection.getLoop().execute(connection, null, () -> connection.close(e));
+        } else {
+            transport.cancel(this);
+        }
+        fail(e);
+    }
+
+    @Override
+    public CompletableFuture<Void> whenReceived(boolean buffered) {
+        if (buffered) body.setUnbounded();
+        return buffered ? bodyReceived : headersReceived;
+    }
+
+    private void awaitHeaders() throws IOException {
+        connect();
+        try {
+            headersReceived.get();
+        } catch (InterruptedException e) {
+            disconnect();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new HttpURLRequestException(e.getCause());
+        }
+    }
+
+    /**
+     * resolve the address of the server before a connection is opened to it, which may block and must
+     * be done neither by the caller nor by a selector thread
+     */
+    void resolve() {
+        address = new InetSocketAddress(address.getHostString(), address.getPort());
+    }
+
+    /**
+     * @return the address of the server, unresolved if its host is unknown
+     */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    String getRoute() {
+        return HttpURLConnectionPool.routeOf(url);
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    int getReadTimeout() {
+        return readTimeout;
+    }
+
+    boolean isDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * @return whether the exchange failed, after which it is not sent again
+     */
+    boolean isFailed() {
+        return bodyReceived.isCompletedExceptionally();
+    }
+
+    /**
+     * @return whether the method is idempotent, which lets the request be pipelined or sent again
+     * when its connection closes before answering
+     */
+    boolean isIdempotent() {
+        return HttpURLRetryPolicy.isIdempotent(method) && requestBody == null;
+    }
+
+    boolean isHead() {
+        return method.equals("HEAD");
+    }
+
+    boolean hasRequestBody() {
+        return requestBody != null;
+    }
+
+    /**
+     * called by the selector thread once the request headers are written
+     *
+     * @return the next part of the request body, or {@code null} if the caller did not write it yet,
+     * in which case the connection resumes writing once it does
+     */
+    ByteBuffer pollRequestBody() {
+        return requestBody.poll();
+    }
+
+    /**
+     * @return whether the whole request body was handed to the connection
+     */
+    boolean isRequestBodySent() {
+        return requestBody.isSent();
+    }
+
+    /**
+     * stop the caller writing the request body, which the connection will not send
+     */
+    void failRequestBody(IOException e) {
+        requestBody.fail(e);
+    }
+
+    /**
+     * @return the serialized request headers, ready to be written from their start
+     */
+    ByteBuffer[] getRequest() {
+        ByteBuffer[] buffers = new ByteBuffer[request.length];
+        for (int i = 0; i < request.length; i++) buffers[i] = request[i].duplicate();
+        return buffers;
+    }
+
+    void setConnection(HttpURLNioConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * called by the selector thread with the response headers
+     *
+     * @return whether the body is wanted, which it is not when it belongs to a redirect
+     */
+    boolean onHeaders(int code, String message, Map<String, List<String>> headers) {
+        String location = firstHeader(headers, "Location");
+        boolean redirected = code == HttpURLRequest.HTTP_SEE_OTHER
+                || (code == HttpURLRequest.HTTP_MOVED_PERM || code == HttpURLRequest.HTTP_MOVED_TEMP || code == 307 || code == 308)
+                && (method.equals("GET") || method.equals("HEAD"));
+        if (redirected && location != null && redirects < MAX_REDIRECTS) {
+            try {
+                URL target = new URL(url, location);
+                if (target.getProtocol().equals(url.getProtocol())) {
+                    redirect = target;
+                    return false;
+                }
+            } catch (MalformedURLException e) {
+                // handed to the caller as is
+            }
+        }
+        responseCode = code;
+        responseMessage = message;
+        responseHeaders = Collections.unmodifiableMap(headers);
+        headersReceived.complete(null);
+        return true;
+    }
+
+    /**
+     * called by the selector thread with a part of the body
+     *
+     * @return whether the caller reads slower than the body arrives, so that reading should pause
+     */
+    boolean onBody(byte[] chunk) {
+        return body.offer(chunk);
+    }
+
+    /**
+     * called by the selector thread once the response is received
+     */
+    void onComplete() {
+        URL redirect = this.redirect;
+        if (redirect == null) {
+            body.end();
+            bodyReceived.complete(null);
+            return;
+        }
+        this.redirect = null;
+        redirects++;
+        url = redirect;
+        if (!method.equals("HEAD")) method = "GET";
+        requestBody = null;
+        connection = null;
+        // sent once this connection is handed back, so that it may carry the redirect
+        HttpURLExecutors.defaultExecutor().execute(() -> {
+            try {
+                prepare();
+                transport.dispatch(this);
+            } catch (RuntimeException e) {
+                fail(new IOException(e));
+            }
+        });
+    }
+
+    void fail(IOException e) {
+        RequestBodyStream requestBody = this.requestBody;
+        if (requestBody != null) requestBody.fail(e);
+        headersReceived.completeExceptionally(e);
+        body.fail(e);
+        bodyReceived.completeExceptionally(e);
+    }
+
+    private static String firstHeader(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) return header.getValue().get(0);
+        }
+        return null;
+    }
+
+    /**
+     * body received by the selector thread and not read yet; above {@link #HIGH_WATER} bytes the connection
+     * stops reading until the caller catches up, unless the whole body is wanted at once
+     */
+    private final class BodyStream extends InputStream {
+        private static final int HIGH_WATER = 256 * 1024;
+        private static final int LOW_WATER = 64 * 1024;
+
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] chunk = null;
+        private int position = 0;
+        private long buffered = 0;
+        private boolean unbounded = false;
+        private boolean paused = false;
+        private boolean ended = false;
+        private IOException failure = null;
+
+        synchronized void setUnbounded() {
+            unbounded = true;
+        }
+
+        /**
+         * @return whether reading should pause
+         */
+        synchronized boolean offer(byte[] chunk) {
+            chunks.add(chunk);
+            buffered += chunk.length;
+            notifyAll();
+            if (!unbounded && !paused && buffered >= HIGH_WATER) paused = true;
+            return paused;
+        }
+
+        synchronized void end() {
+            ended = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            if (ended) return;
+            failure = e;
+            notifyAll();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) return 0;
+            int count;
+            boolean resume = false;
+            synchronized (this) {
+                while (chunk == null || position == chunk.length) {
+                    chunk = chunks.poll();
+                    position = 0;
+                    if (chunk != null) {
+                        buffered -= chunk.length;
+                        continue;
+                    }
+                    if (failure != null) throw failure;
+                    if (ended) return -1;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while reading the response");
+                    }
+                }
+                count = Math.min(len, chunk.length - position);
+                System.arraycopy(chunk, position, b, off, count);
+                position += count;
+                if (paused && buffered < LOW_WATER) {
+                    paused = false;
+                    resume = true;
+                }
+            }
+            HttpURLNioConnection connection = HttpURLNioExchange.this.connection;
+            if (resume && connection != null) {
+                connection.getLoop().execute(connection, HttpURLNioExchange.this, () -> connection.resumeReading(HttpURLNioExchange.this));
+            }
+            return count;
+        }
+
+        @Override
+        public synchronized int available() throws IOException {
+            if (failure != null) throw failure;
+            return (int) Math.min(Integer.MAX_VALUE, buffered + (chunk == null ? 0 : chunk.length - position));
+        }
+    }
+
+    /**
+     * request body written by the caller and not taken by the selector thread yet; above {@link #HIGH_WATER}
+     * bytes the writes wait for the connection to catch up
+     */
+    private final class RequestBodyStream extends OutputStream {
+        private static final int HIGH_WATER = 256 * 1024;
+        private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+        private final long contentLength;
+        private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+        private long count = 0;
+        private long buffered = 0;
+        private boolean closed = false;
+        private boolean waiting = false;
+        private IOException failure = null;
+
+        /**
+         * @param contentLength size of the body, or {@code -1} to send it chunked
+         */
+        RequestBodyStream(long contentLength) {
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            while (len > 0) {
+                int size = Math.min(len, MAX_CHUNK_SIZE);
+                offer(b, off, size);
+                off += size;
+                len -= size;
+            }
+        }
+
+        private void offer(byte[] b, int off, int len) throws IOException {
+            boolean resume;
+            synchronized (this) {
+                if (closed) throw new IOException("request body closed");
+                if (contentLength >= 0 && count + len > contentLength) throw new IOException("request body exceeds its " + contentLength + " bytes");
+                while (failure == null && buffered >= HIGH_WATER) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while writing the request body");
+                    }
+                }
+                if (failure != null) throw failure;
+                byte[] chunk;
+                if (contentLength >= 0) {
+                    chunk = Arrays.copyOfRange(b, off, off + len);
+                } else {
+                    byte[] size = (Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                    chunk = new byte[size.length + len + 2];
+                    System.arraycopy(size, 0, chunk, 0, size.length);
+                    System.arraycopy(b, off, chunk, size.length, len);
+                    chunk[chunk.length - 2] = '\r';
+                    chunk[chunk.length - 1] = '\n';
+                }
+                chunks.add(ByteBuffer.wrap(chunk));
+                count += len;
+                buffered += chunk.length;
+                resume = waiting;
+                waiting = false;
+            }
+            if (resume) resumeWriting();
+        }
+
+        @Override
+        public void close() throws IOException {
+            boolean resume;
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                if (failure != null) throw failure;
+                if (contentLength >= 0 && count != contentLength) throw new IOException("request body of " + count + " bytes instead of " + contentLength);
+                if (contentLength < 0) chunks.add(ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)));
+                resume = waiting;
+                waiting = false;
+            }
+            if (resume) resumeWriting();
+        }
+
+        private void resumeWriting() {
+            HttpURLNioConnection connection = HttpURLNioExchange.this.connection;
+            if (connection != null) connection.getLoop().execute(connection, HttpURLNioExchange.this, connection::resumeWriting);
+        }
+
+        synchronized ByteBuffer poll() {
+            ByteBuffer chunk = chunks.poll();
+            if (chunk == null) {
+                waiting = !isSent();
+                return null;
+            }
+            buffered -= chunk.remaining();
+            notifyAll();
+            return chunk;
+        }
+
+        /**
+         * @return whether the whole body was taken, which is known before it is closed when its length is fixed
+         */
+        synchronized boolean isSent() {
+            return chunks.isEmpty() && (closed || contentLength >= 0 && count == contentLength);
+        }
+
+        synchronized void fail(IOException e) {
+            if (failure == null) failure = e;
+            notifyAll();
+        }
+    }
+}
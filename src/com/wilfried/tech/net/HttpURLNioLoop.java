@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * selector thread of {@link HttpURLNioTransport}, doing the I/O of its connections;
+ * the direct buffers it reads and writes through are shared by all of them
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLNioLoop implements Runnable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * interval in milliseconds between two checks of the timeouts of the connections
+     */
+    private static final long SWEEP_INTERVAL = 100;
+
+    private final Selector selector;
+    private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean wakingUp = new AtomicBoolean(false);
+    private final Set<HttpURLNioConnection> connections = new HashSet<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean stopping = false;
+    private volatile boolean terminated = false;
+
+    HttpURLNioLoop(ThreadFactory threadFactory) throws IOException {
+        selector = Selector.open();
+        thread = threadFactory.newThread(this);
+        thread.start();
+    }
+
+    /**
+     * run {@code task} on the selector thread; if it throws, {@code exchange} fails with the exception
+     * and {@code connection} is closed
+     *
+     * @param connection connection the task works on
+     * @param exchange   exchange the task works for, or {@code null}
+     */
+    void execute(HttpURLNioConnection connection, HttpURLNioExchange exchange, Runnable task) {
+        tasks.add(new Task(connection, exchange, task));
+        if (terminated) {
+            // the selector thread is gone, its connections are closed and the task can only fail
+            runTasks();
+        } else if (Thread.currentThread() != thread && wakingUp.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * close the connections of this loop and end its thread
+     */
+    void shutdown() {
+        stopping = true;
+        selector.wakeup();
+    }
+
+    private synchronized void runTasks() {
+        Task task;
+        while ((task = tasks.poll()) != null) task.run();
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    ByteBuffer getWriteBuffer() {
+        return writeBuffer;
+    }
+
+    void register(HttpURLNioConnection connection) {
+        connections.add(connection);
+    }
+
+    void unregister(HttpURLNioConnection connection) {
+        connections.remove(connection);
+    }
+
+    @Override
+    public void run() {
+        long nextSweep = System.nanoTime();
+        while (!stopping) {
+            try {
+                selector.select(SWEEP_INTERVAL);
+            } catch (IOException e) {
+                continue;
+            }
+            wakingUp.set(false);
+            runTasks();
+            for (Iterator<SelectionKey> iterator = selector.selectedKeys().iterator(); iterator.hasNext(); ) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                HttpURLNioConnection connection = (HttpURLNioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) connection.finishConnect();
+                    if (key.isValid() && key.isWritable()) connection.flush();
+                    if (key.isValid() && key.isReadable()) connection.read();
+                } catch (IOException e) {
+                    connection.close(e);
+                } catch (RuntimeException e) {
+                    connection.close(new IOException(e));
+                }
+            }
+            long now = System.nanoTime();
+            if (now - nextSweep >= 0) {
+                nextSweep = now + TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL);
+                for (HttpURLNioConnection connection : new ArrayList<>(connections)) {
+                    connection.sweep(now);
+                }
+            }
+        }
+        runTasks();
+        IOException closed = new IOException("transport closed");
+        for (HttpURLNioConnection connection : new ArrayList<>(connections)) {
+            connection.close(closed);
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+        }
+        terminated = true;
+        // tasks queued meanwhile find the selector closed
+        runTasks();
+    }
+
+    /**
+     * task posted to the loop, with the connection and the exchange that fail when it throws
+     */
+    private static final class Task {
+        private final HttpURLNioConnection connection;
+        private final HttpURLNioExchange exchange;
+        private final Runnable action;
+
+        Task(HttpURLNioConnection connection, HttpURLNioExchange exchange, Runnable action) {
+            this.connection = connection;
+            this.exchange = exchange;
+            this.action = action;
+        }
+
+        void run() {
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                IOException failure = new IOException(e);
+                if (exchange != null) exchange.fail(failure);
+                connection.close(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP/1.1 transport built on non-blocking {@link java.nio.channels.SocketChannel}s, served by a few
+ * selector threads whatever the number of requests in flight; {@code https} URLs are carried by
+ * {@link HttpURLConnectionTransport}. The threads run until {@link #close()}, which the shared
+ * transport ignores
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+final class HttpURLNioTransport implements HttpURLTransport {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 64;
+
+    private final HttpURLNioLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final int maxConnectionsPerHost;
+    private final int pipelineDepth;
+    private final long idleTimeout;
+    private final Map<String, Route> routes = new ConcurrentHashMap<>();
+    private final boolean shared;
+    private volatile boolean closed = false;
+
+    /**
+     * @param selectorThreads       number of selector threads
+     * @param maxConnectionsPerHost connections opened at most to a host
+     * @param pipelineDepth         requests sent at most on a connection before their responses, {@code 1} to disable pipelining
+     */
+    HttpURLNioTransport(int selectorThreads, int maxConnectionsPerHost, int pipelineDepth) {
+        this(selectorThreads, maxConnectionsPerHost, pipelineDepth, false);
+    }
+
+    private HttpURLNioTransport(int selectorThreads, int maxConnectionsPerHost, int pipelineDepth, boolean shared) {
+        if (selectorThreads <= 0) throw new IllegalArgumentException("selectorThreads must be positive");
+        if (maxConnectionsPerHost <= 0) throw new IllegalArgumentException("maxConnectionsPerHost must be positive");
+        if (pipelineDepth <= 0) throw new IllegalArgumentException("pipelineDepth must be positive");
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.pipelineDepth = pipelineDepth;
+        this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(HttpURLClient.DEFAULT_IDLE_TIMEOUT);
+        this.shared = shared;
+        ThreadFactory threadFactory = HttpURLExecutors.daemonThreadFactory("HttpURLRequest-nio");
+        loops = new HttpURLNioLoop[selectorThreads];
+        try {
+            for (int i = 0; i < selectorThreads; i++) loops[i] = new HttpURLNioLoop(threadFactory);
+        } catch (IOException e) {
+            for (HttpURLNioLoop loop : loops) {
+                if (loop != null) loop.shutdown();
+            }
+            throw new HttpURLRequestException(e);
+        }
+    }
+
+    @Override
+    public HttpURLExchange newExchange(String method, URL url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException {
+        if (!isCarried(url)) {
+            return HttpURLConnectionTransport.INSTANCE.newExchange(method, url, headers, connectTimeout, readTimeout);
+        }
+        if (closed) throw new IOException("transport closed");
+        return new HttpURLNioExchange(this, method, url, headers, connectTimeout, readTimeout);
+    }
+
+    /**
+     * the transport bounds its own connections per host, which {@link HttpURLClient} must not do on top;
+     * the requests handed to {@link HttpURLConnectionTransport} stay bounded by the client
+     */
+    @Override
+    public boolean isMultiplexed(URL url) {
+        return isCarried(url);
+    }
+
+    private static boolean isCarried(URL url) {
+        return url.getProtocol().equals("http");
+    }
+
+    @Override
+    public boolean isNonBlocking() {
+        return true;
+    }
+
+    /**
+     * send {@code exchange} on an idle connection, a new one, or behind the requests of a busy one when
+     * it can be pipelined; otherwise it waits for a connection to be free
+     */
+    void dispatch(HttpURLNioExchange exchange) {
+        if (exchange.isDisconnected()) return;
+        Route route = routes.computeIfAbsent(exchange.getRoute(), Route::new);
+        HttpURLNioConnection connection;
+        boolean open = false;
+        synchronized (route) {
+            if (closed) {
+                exchange.fail(new IOException("transport closed"));
+                return;
+            }
+            connection = route.idle.pollLast();
+            if (connection == null && route.connections.size() < maxConnectionsPerHost) {
+                connection = new HttpURLNioConnection(this, loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)], route.key);
+                route.connections.add(connection);
+                open = true;
+            }
+            if (connection == null && exchange.isIdempotent()) connection = route.pipelinable();
+            if (connection == null) {
+                route.pending.add(exchange);
+                return;
+            }
+            route.assign(connection, exchange);
+        }
+        HttpURLNioConnection chosen = connection;
+        if (!open) {
+            chosen.getLoop().execute(chosen, exchange, () -> chosen.send(exchange));
+            return;
+        }
+        // resolving the server may block, which neither the caller nor the selector threads must
+        HttpURLExecutors.defaultExecutor().execute(() -> {
+            exchange.resolve();
+            chosen.getLoop().execute(chosen, exchange, () -> chosen.open(exchange));
+        });
+    }
+
+    /**
+     * forget {@code exchange} if it still waits for a connection
+     */
+    void cancel(HttpURLNioExchange exchange) {
+        Route route = routes.get(exchange.getRoute());
+        if (route == null) return;
+        synchronized (route) {
+            route.pending.remove(exchange);
+        }
+    }
+
+    /**
+     * called by the selector thread of {@code connection} once it received a response and remains open;
+     * the connection takes the waiting requests it can carry
+     */
+    void onComplete(HttpURLNioConnection connection) {
+        Route route = routes.get(connection.getRoute());
+        List<HttpURLNioExchange> next = new ArrayList<>();
+        synchronized (route) {
+            route.unassign(connection);
+            for (Iterator<HttpURLNioExchange> iterator = route.pending.iterator(); iterator.hasNext(); ) {
+                HttpURLNioExchange pending = iterator.next();
+                if (!route.accepts(connection, pending)) break;
+                iterator.remove();
+                route.assign(connection, pending);
+                next.add(pending);
+            }
+            if (route.assigned.get(connection) == null) route.idle.addLast(connection);
+        }
+        for (HttpURLNioExchange pending : next) connection.send(pending);
+    }
+
+    /**
+     * called by the selector thread of {@code connection} once it is closed; new connections are opened
+     * for the requests waiting for one
+     */
+    void onClosed(HttpURLNioConnection connection) {
+        Route route = routes.get(connection.getRoute());
+        List<HttpURLNioExchange> next = new ArrayList<>();
+        synchronized (route) {
+            route.connections.remove(connection);
+            route.idle.remove(connection);
+            route.assigned.remove(connection);
+            route.idempotent.remove(connection);
+            while (!route.pending.isEmpty() && route.connections.size() + next.size() < maxConnectionsPerHost) {
+                next.add(route.pending.poll());
+            }
+        }
+        for (HttpURLNioExchange pending : next) dispatch(pending);
+    }
+
+    /**
+     * @return whether {@code connection} stayed idle longer than the idle timeout, in which case it is
+     * no longer handed out and must be closed
+     */
+    boolean isExpired(HttpURLNioConnection connection, long now) {
+        Route route = routes.get(connection.getRoute());
+        synchronized (route) {
+            if (route.assigned.get(connection) != null || now - connection.getLastActivity() < idleTimeout) return false;
+            route.idle.remove(connection);
+            route.connections.remove(connection);
+            return true;
+        }
+    }
+
+    /**
+     * stop the selector threads; the requests in flight fail with an {@link IOException}
+     */
+    @Override
+    public void close() {
+        if (shared || closed) return;
+        closed = true;
+        List<HttpURLNioExchange> pending = new ArrayList<>();
+        for (Route route : routes.values()) {
+            synchronized (route) {
+                pending.addAll(route.pending);
+                route.pending.clear();
+            }
+        }
+        for (HttpURLNioLoop loop : loops) loop.shutdown();
+        IOException e = new IOException("transport closed");
+        for (HttpURLNioExchange exchange : pending) exchange.fail(e);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLNioTransport[" + loops.length + " selectors, " + maxConnectionsPerHost + " connections per host, pipeline depth " + pipelineDepth + "]";
+    }
+
+    /**
+     * connections to one host and the requests waiting for them, guarded by the route itself
+     */
+    private final class Route {
+        private final String key;
+        private final List<HttpURLNioConnection> connections = new ArrayList<>();
+        private final ArrayDeque<HttpURLNioConnection> idle = new ArrayDeque<>();
+        private final ArrayDeque<HttpURLNioExchange> pending = new ArrayDeque<>();
+
+        /**
+         * number of requests sent on each busy connection and not answered yet
+         */
+        private final Map<HttpURLNioConnection, Integer> assigned = new HashMap<>();
+
+        /**
+         * busy connections carrying only idempotent requests, which may be pipelined behind them
+         */
+        private final List<HttpURLNioConnection> idempotent = new ArrayList<>();
+
+        Route(String key) {
+            this.key = key;
+        }
+
+        void assign(HttpURLNioConnection connection, HttpURLNioExchange exchange) {
+            Integer count = assigned.get(connection);
+            assigned.put(connection, count == null ? 1 : count + 1);
+            if (count == null && exchange.isIdempotent()) {
+                idempotent.add(connection);
+            } else if (!exchange.isIdempotent()) {
+                idempotent.remove(connection);
+            }
+        }
+
+        void unassign(HttpURLNioConnection connection) {
+            Integer count = assigned.get(connection);
+            if (count == null) return;
+            if (count == 1) {
+                assigned.remove(connection);
+                idempotent.remove(connection);
+            } else {
+                assigned.put(connection, count - 1);
+            }
+        }
+
+        boolean accepts(HttpURLNioConnection connection, HttpURLNioExchange exchange) {
+            Integer count = assigned.get(connection);
+            if (count == null) return true;
+            return exchange.isIdempotent() && count < pipelineDepth && idempotent.contains(connection);
+        }
+
+        /**
+         * @return the least loaded connection an idempotent request may be pipelined on, or {@code null}
+         */
+        HttpURLNioConnection pipelinable() {
+            HttpURLNioConnection best = null;
+            int lowest = pipelineDepth;
+            for (HttpURLNioConnection connection : idempotent) {
+                int count = assigned.get(connection);
+                if (count < lowest) {
+                    best = connection;
+                    lowest = count;
+                }
+            }
+            return best;
+        }
+    }
+
+    static final class SharedInstanceHolder {
+        static final HttpURLNioTransport INSTANCE = new HttpURLNioTransport(
+                Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)), DEFAULT_MAX_CONNECTIONS_PER_HOST, 1, true);
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+/**
+ * Snapshot of the connection usage of an {@link HttpURLClient}.
+ * <p>
+ * The leased and pending counts are exact. The sockets are kept alive by {@link java.net.HttpURLConnection},
+ * which the client cannot observe, so the idle, reused and evicted counts are estimates: they assume
+ * every fully read response leaves its socket to be reused, while the JDK keeps at most
+ * {@code http.maxConnections} (5 by default) idle sockets per host and closes them on its own schedule.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLPoolStats {
+    private final int leased;
+    private final int idle;
+    private final int pending;
+    private final long created;
+    private final long reused;
+    private final long evicted;
+
+    HttpURLPoolStats(int leased, int idle, int pending, long created, long reused, long evicted) {
+        this.leased = leased;
+        this.idle = idle;
+        this.pending = pending;
+        this.created = created;
+        this.reused = reused;
+        this.evicted = evicted;
+    }
+
+    /**
+     * @return number of connections currently carrying a request
+     */
+    public int getLeased() {
+        return leased;
+    }
+
+    /**
+     * @return estimated number of kept-alive connections waiting to be reused
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return number of requests waiting for a connection
+     */
+    public int getPending() {
+        return pending;
+    }
+
+    /**
+     * @return estimated number of requests that needed a new connection
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return estimated number of requests served by a kept-alive connection
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    /**
+     * @return number of idle connections no longer counted after {@link HttpURLClient#DEFAULT_IDLE_TIMEOUT}
+     * milliseconds; their sockets are closed by the keep-alive cache of the JDK, not by the client
+     */
+    public long getEvicted() {
+        return evicted;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLPoolStats{leased=" + leased + ", idle=" + idle + ", pending=" + pending +
+                ", created=" + created + ", reused=" + reused + ", evicted=" + evicted + "}";
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+/**
+ * Receives the progress of a request body upload
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+@FunctionalInterface
+public interface HttpURLProgressListener {
+    /**
+     * called periodically while the body is written, and once when it is complete
+     *
+     * @param transferred    number of body bytes written so far, before compression
+     * @param total          size of the body, or {@code -1} if unknown
+     * @param bytesPerSecond average throughput since the upload started
+     */
+    void onProgress(long transferred, long total, double bytesPerSecond);
+}
@@ -11,8 +11,20 @@ import java.net.*;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 
 public class HttpURLRequest {
@@ -57,15 +69,72 @@ public class HttpURLRequest {
     public static final int HTTP_GATEWAY_TIMEOUT = 504;
     public static final int HTTP_VERSION = 505;
 
+    /**
+     * smallest request body compressed when request compression is enabled
+     *
+     * @since 1.1
+     */
+    public static final long DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /**
+     * number of leading bytes of a stream inspected to guess its content type
+     */
+    private static final int CONTENT_SNIFF_SIZE = 64;
+
+    /**
+     * minimum delay between two upload progress notifications, in nanoseconds
+     */
+    private static final long PROGRESS_INTERVAL = 100_000_000L;
+
     private final Map<String, String> headers = new HashMap<>();
-    private HttpURLConnection httpURLConnection = null;
+    private volatile HttpURLExchange exchange = null;
     private String method = "GET";
     private URL url = null;
     private boolean opened = false;
     private boolean sent = false;
+    private volatile boolean aborted = false;
     private int timeout = 0;
+    private int connectTimeout = 0;
+    private long callTimeout = 0;
+    private volatile HttpURLDeadline deadline = HttpURLDeadline.NONE;
+    private volatile boolean deadlineExceeded = false;
+    private final Object pauseLock = new Object();
+    private HttpURLResponseMode responseMode = HttpURLResponseMode.BUFFERED;
+    private long maxResponseSize = -1;
+    private final HttpURLClient client;
+    private volatile HttpURLConnectionPool.Lease lease = null;
+    private Executor executor = null;
+    private HttpURLCache cache = null;
+    private boolean contentDecoding = true;
+    private boolean requestCompression = false;
+    private long requestCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private HttpURLProgressListener uploadProgressListener = null;
+    private HttpURLEventListener eventListener = null;
+    private HttpURLEventDispatcher events = null;
+    private HttpURLTransport transport = null;
+    private HttpURLRetryPolicy retryPolicy = null;
+    private HttpURLHostLimiter hostLimiter = null;
+    private HttpURLCoalescer coalescer = null;
+    private volatile CompletableFuture<HttpURLResponse> coalesced = null;
+    private volatile boolean bodyStarted = false;
+    private volatile HttpURLRequest hedge = null;
 
     public HttpURLRequest() {
+        this(null);
+    }
+
+    HttpURLRequest(HttpURLClient client) {
+        this.client = client;
+        if (client != null) {
+            cache = client.getCache();
+            eventListener = client.getEventListener();
+            transport = client.getTransport();
+            retryPolicy = client.getRetryPolicy();
+            hostLimiter = client.getHostLimiter();
+            coalescer = client.getCoalescer();
+            connectTimeout = client.getConnectTimeout();
+            callTimeout = client.getCallTimeout();
+        }
         headers.put("User-Agent", "Wilfried-Tech@XMLHttpRequest");
     }
 
@@ -74,25 +143,52 @@ public class HttpURLRequest {
     }
 
     public void open(final @NotNull String method, final @NotNull String url, final String username, final String password) throws IllegalArgumentException, MalformedURLException, ProtocolException {
-        String methods = "^(GET|POST|HEAD|OPTIONS|PUT|DELETE|TRACE)$";
-        if (!method.trim().toUpperCase().matches(methods)) {
-            throw new ProtocolException("Invalid HTTP method: " + method);
-        }
-
+        String checkedMethod = checkMethod(method);
         if (!Objects.equals(username, null) || !Objects.equals(password, null)) {
-            if (username.isEmpty()) throw new IllegalArgumentException("username is empty");
-            if (password.isEmpty()) throw new IllegalArgumentException("password is empty");
-            Authenticator.setDefault(new Authenticator() {
-                @Override
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(username, password.toCharArray());
-                }
-            });
-            headers.put("Authorization", "Basic " + Base64.getEncoder().encodeToString((username + " : " + password).getBytes()));
+            headers.put("Authorization", basicAuthorization(username, password));
         }
         this.opened = true;
         this.url = new URL(url);
-        this.method = method.trim().toUpperCase();
+        this.method = checkedMethod;
+    }
+
+    /**
+     * open a request prepared by a {@link HttpURLRequestTemplate}, whose method, URL and headers are already validated
+     */
+    void open(String method, URL url, Map<String, String> headers) {
+        this.headers.putAll(headers);
+        this.opened = true;
+        this.url = url;
+        this.method = method;
+    }
+
+    /**
+     * @return {@code method} in upper case
+     * @throws ProtocolException if {@code method} is not supported
+     */
+    static String checkMethod(String method) throws ProtocolException {
+        String normalized = method.trim().toUpperCase(Locale.ROOT);
+        switch (normalized) {
+            case "GET":
+            case "POST":
+            case "HEAD":
+            case "OPTIONS":
+            case "PUT":
+            case "DELETE":
+            case "TRACE":
+                return normalized;
+            default:
+                throw new ProtocolException("Invalid HTTP method: " + method);
+        }
+    }
+
+    /**
+     * @return the value of a {@code Basic} {@code Authorization} header
+     */
+    static String basicAuthorization(String username, String password) {
+        if (username == null || username.isEmpty()) throw new IllegalArgumentException("username is empty");
+        if (password == null || password.isEmpty()) throw new IllegalArgumentException("password is empty");
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
     }
 
     public void checkState() {
@@ -110,6 +206,17 @@ public class HttpURLRequest {
         }
     }
 
+    private boolean hasRequestHeader(String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    URL getURL() {
+        return url;
+    }
+
     public void setRequestHeader(String name, String value) {
         checkState();
         headers.put(name, value);
@@ -120,73 +227,706 @@ public class HttpURLRequest {
         this.timeout = timeout;
     }
 
+    /**
+     * The {@link HttpURLTransport#http2() HTTP/2 transport} ignores this timeout: {@link java.net.http.HttpClient}
+     * only takes a connect timeout for all its connections, set on its builder. Bound such requests with
+     * {@link #setCallTimeout(long)}.
+     *
+     * @param connectTimeout time in milliseconds allowed to establish each connection, or {@code 0} for none
+     * @since 1.1
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        checkState();
+        if (connectTimeout < 0) throw new IllegalArgumentException("connectTimeout is negative");
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * bound the whole call: waiting for a connection, connecting, uploading the body, reading the response
+     * and every retry must end within {@code callTimeout}, after which the request fails with a
+     * {@link SocketTimeoutException} and its connection is closed
+     *
+     * @param callTimeout time in milliseconds from the call of {@code send}, or {@code 0} for none
+     * @since 1.1
+     */
+    public void setCallTimeout(long callTimeout) {
+        checkState();
+        if (callTimeout < 0) throw new IllegalArgumentException("callTimeout is negative");
+        this.callTimeout = callTimeout;
+    }
+
+    /**
+     * choose whether the response body is buffered in memory or streamed from the connection
+     *
+     * @param responseMode the delivery mode of the response body
+     * @since 1.1
+     */
+    public void setResponseMode(@NotNull HttpURLResponseMode responseMode) {
+        checkState();
+        this.responseMode = Objects.requireNonNull(responseMode);
+    }
+
+    /**
+     * limit the number of bytes the response body may contain
+     *
+     * @param maxResponseSize maximum body size in bytes, or {@code -1} for no limit
+     * @since 1.1
+     */
+    public void setMaxResponseSize(long maxResponseSize) {
+        checkState();
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    /**
+     * set the executor running the {@code sendAsync} methods of this request
+     *
+     * @param executor executor of the asynchronous calls
+     * @since 1.1
+     */
+    public void setExecutor(@NotNull Executor executor) {
+        checkState();
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * serve this request from {@code cache} when possible and store its response there;
+     * only {@code GET} requests in {@link HttpURLResponseMode#BUFFERED} mode are stored, and requests
+     * carrying {@code Range} or {@code If-Range} or without {@link #setContentDecoding content decoding} bypass it
+     *
+     * @param cache the cache to use, or {@code null} to bypass the cache of the client
+     * @since 1.1
+     */
+    public void setCache(HttpURLCache cache) {
+        checkState();
+        this.cache = cache;
+    }
+
+    /**
+     * choose whether {@code Accept-Encoding: gzip, deflate} is sent and compressed responses are decoded;
+     * enabled by default
+     *
+     * @param contentDecoding {@code false} to receive response bodies as sent by the server
+     * @since 1.1
+     */
+    public void setContentDecoding(boolean contentDecoding) {
+        checkState();
+        this.contentDecoding = contentDecoding;
+    }
+
+    /**
+     * gzip the request bodies of at least {@code threshold} bytes, or of unknown size
+     *
+     * @param requestCompression {@code true} to compress request bodies
+     * @since 1.1
+     */
+    public void setRequestCompression(boolean requestCompression) {
+        checkState();
+        this.requestCompression = requestCompression;
+    }
+
+    /**
+     * @param requestCompressionThreshold smallest request body, in bytes, compressed when request compression is enabled
+     * @since 1.1
+     */
+    public void setRequestCompressionThreshold(long requestCompressionThreshold) {
+        checkState();
+        if (requestCompressionThreshold < 0) throw new IllegalArgumentException("requestCompressionThreshold is negative");
+        this.requestCompressionThreshold = requestCompressionThreshold;
+    }
+
+    /**
+     * @param uploadProgressListener listener notified while the request body is written, or {@code null}
+     * @since 1.1
+     */
+    public void setUploadProgressListener(HttpURLProgressListener uploadProgressListener) {
+        checkState();
+        this.uploadProgressListener = uploadProgressListener;
+    }
+
+    /**
+     * @param eventListener listener notified of the steps of this request, or {@code null}
+     * @since 1.1
+     */
+    public void setEventListener(HttpURLEventListener eventListener) {
+        checkState();
+        this.eventListener = eventListener;
+    }
+
+    /**
+     * @param transport transport carrying this request, or {@code null} for {@link HttpURLTransport#getDefault()}
+     * @since 1.1
+     */
+    public void setTransport(HttpURLTransport transport) {
+        checkState();
+        this.transport = transport;
+    }
+
+    /**
+     * @param retryPolicy policy retrying this request when it fails, or {@code null} to send it once
+     * @since 1.1
+     */
+    public void setRetryPolicy(HttpURLRetryPolicy retryPolicy) {
+        checkState();
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @param hostLimiter limiter pacing the requests to the host of this request, or {@code null} for none
+     * @since 1.1
+     */
+    public void setHostLimiter(HttpURLHostLimiter hostLimiter) {
+        checkState();
+        this.hostLimiter = hostLimiter;
+    }
+
+    /**
+     * @param coalescer coalescer letting this request share the response of an identical one in flight, or {@code null}
+     * @since 1.1
+     */
+    public void setCoalescer(HttpURLCoalescer coalescer) {
+        checkState();
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * cancel the request: a call waiting for a connection or a retry gives up at once, and the connection
+     * is closed without blocking the calling thread
+     */
     public void abort() {
         checkState(false);
-        if (httpURLConnection != null) httpURLConnection.disconnect();
+        aborted = true;
+        HttpURLRequest hedge = this.hedge;
+        if (hedge != null) hedge.abort();
+        disconnectAsync(exchange);
+        if (lease != null) lease.release(false);
+        if (client != null) client.getConnectionPool().wakeUp();
+        if (hostLimiter != null) hostLimiter.wakeUp();
+        CompletableFuture<HttpURLResponse> coalesced = this.coalesced;
+        if (coalesced != null) coalesced.cancel(false);
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    /**
+     * close {@code exchange} on another thread, since closing a connection may wait for a read in progress
+     */
+    private static void disconnectAsync(HttpURLExchange exchange) {
+        if (exchange != null) HttpURLExecutors.defaultExecutor().execute(exchange::disconnect);
     }
 
     private void initSendData() throws IOException {
         this.sent = true;
-        httpURLConnection = (HttpURLConnection) this.url.openConnection();
-        httpURLConnection.setRequestMethod(method.toUpperCase().trim());
-        httpURLConnection.setUseCaches(false);
-        httpURLConnection.setDoInput(true);
-        httpURLConnection.setDoOutput(true);
-        if (timeout > 0) {
-            httpURLConnection.setReadTimeout(this.timeout);
+        if (aborted) {
+            throw new HttpURLRequestException("request aborted");
         }
-        for (String key : headers.keySet()) {
-            httpURLConnection.setRequestProperty(key, headers.get(key));
+        HttpURLTransport transport = getTransport();
+        if (client != null && !transport.isMultiplexed(url)) {
+            lease = client.getConnectionPool().acquire(url, deadline, () -> aborted);
+        }
+        Map<String, String> headers = new HashMap<>(this.headers);
+        if (contentDecoding && !hasRequestHeader("Accept-Encoding")) {
+            headers.put("Accept-Encoding", "gzip, deflate");
         }
+        exchange = transport.newExchange(method, url, headers, deadline.clamp(connectTimeout), deadline.clamp(timeout));
+        if (aborted) exchange.disconnect();
+    }
+
+    private HttpURLTransport getTransport() {
+        return this.transport != null ? this.transport : HttpURLTransport.getDefault();
+    }
+
+    /**
+     * open the output of the request body, choosing between fixed-length and chunked streaming
+     * and compressing the body when it is enabled
+     *
+     * @param contentLength size of the body, or {@code -1} if unknown
+     */
+    private OutputStream openRequestBody(HttpURLExchange exchange, long contentLength) throws IOException {
+        boolean compress = requestCompression && (contentLength < 0 || contentLength >= requestCompressionThreshold);
+        if (compress) {
+            exchange.setRequestHeader("Content-Encoding", "gzip");
+        }
+        OutputStream outputStream = new RequestBodyOutputStream(exchange.openRequestBody(compress ? -1 : contentLength), events, deadline);
+        bodyStarted = true;
+        events.connectionAcquired();
+        if (compress) {
+            outputStream = new GZIPOutputStream(outputStream, 8192);
+        }
+        if (uploadProgressListener != null) {
+            outputStream = new ProgressOutputStream(outputStream, contentLength, uploadProgressListener);
+        }
+        return outputStream;
     }
 
     public HttpURLResponse send() throws IOException {
-        initSendData();
-        return new HttpURLResponse(httpURLConnection);
+        return execute(null, true);
     }
 
     public HttpURLResponse send(String body) throws IOException {
         setRequestHeader("Content-Type", "text/plain");
-        initSendData();
-
-        BufferedOutputStream writer = new BufferedOutputStream(httpURLConnection.getOutputStream());
-        writer.write(body.getBytes(StandardCharsets.UTF_8));
-        writer.flush();
-        writer.close();
-        return new HttpURLResponse(httpURLConnection);
+        return execute(exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            OutputStream outputStream = openRequestBody(exchange, bytes.length);
+            outputStream.write(bytes);
+            outputStream.flush();
+            outputStream.close();
+        }, true);
     }
 
     public HttpURLResponse send(InputStream blob) throws IOException {
-        setRequestHeader("Content-Type", URLConnection.guessContentTypeFromStream(blob));
+        return send(blob, -1);
+    }
+
+    /**
+     * send a stream as the request body; the body is sent with a fixed length when
+     * {@code contentLength} is known and chunked otherwise, never buffered in memory
+     *
+     * @param blob          the request body
+     * @param contentLength number of bytes {@code blob} provides, or {@code -1} if unknown
+     * @return the response
+     * @throws IOException if an I/O error occurs
+     * @since 1.1
+     */
+    public HttpURLResponse send(InputStream blob, long contentLength) throws IOException {
+        InputStream inputStream = blob.markSupported() ? blob : new BufferedInputStream(blob, CONTENT_SNIFF_SIZE);
+        if (!hasRequestHeader("Content-Type")) {
+            String contentType = URLConnection.guessContentTypeFromStream(inputStream);
+            setRequestHeader("Content-Type", contentType == null ? "application/octet-stream" : contentType);
+        }
         setRequestHeader("Content-Transfer-Encoding", "binary");
-        initSendData();
-        OutputStream outputStream = httpURLConnection.getOutputStream();
-        new BufferedInputStream(blob).transferTo(outputStream);
-        outputStream.flush();
-        outputStream.close();
-        return new HttpURLResponse(httpURLConnection);
+        return execute(exchange -> {
+            OutputStream outputStream;
+            byte[] head = new byte[0];
+            if (requestCompression && contentLength < 0) {
+                // read up to the threshold to know whether the body is worth compressing
+                bodyStarted = true;
+                head = inputStream.readNBytes((int) Math.min(requestCompressionThreshold, Integer.MAX_VALUE - 8));
+                outputStream = openRequestBody(exchange, head.length < requestCompressionThreshold ? head.length : -1);
+            } else {
+                outputStream = openRequestBody(exchange, contentLength);
+            }
+            outputStream.write(head);
+            HttpURLBuffers.transfer(inputStream, outputStream);
+            outputStream.flush();
+            outputStream.close();
+        }, false);
     }
 
     public HttpURLResponse send(HttpURLRequestData httpURLRequestData) throws IOException {
         if (method.equals("GET")) {
-            initURLParams(httpURLRequestData.getFields());
-            initSendData();
             if (!httpURLRequestData.getBlobs().isEmpty()) {
                 throw new HttpURLRequestException("Could'nt send files via GET Request !");
             }
-        } else {
-            setRequestHeader("Content-Type", "multipart/form-data; boundary=" + httpURLRequestData.getBoundary());
-            initSendData();
-            BufferedOutputStream outputStream = new BufferedOutputStream(httpURLConnection.getOutputStream());
-            outputStream.write(httpURLRequestData.toString().getBytes(StandardCharsets.UTF_8));
+            initURLParams(httpURLRequestData.getFields());
+            return execute(null, true);
+        }
+        setRequestHeader("Content-Type", "multipart/form-data; boundary=" + httpURLRequestData.getBoundary());
+        return execute(exchange -> {
+            OutputStream outputStream = new BufferedOutputStream(openRequestBody(exchange, httpURLRequestData.getContentLength()));
+            httpURLRequestData.writeTo(outputStream);
             outputStream.flush();
             outputStream.close();
+        }, httpURLRequestData.isRepeatable());
+    }
+
+    /**
+     * send the request without blocking the calling thread; over a {@link HttpURLTransport#isNonBlocking()
+     * non-blocking} transport, and without retry policy, host limiter, coalescer or cache, no thread waits
+     * for the response either
+     *
+     * @return a future completed with the response; cancelling it aborts the request
+     * @since 1.1
+     */
+    public CompletableFuture<HttpURLResponse> sendAsync() {
+        if (retryPolicy == null && hostLimiter == null && coalescer == null && cache == null && getTransport().isNonBlocking()) {
+            return sendNonBlocking();
+        }
+        return sendAsync(this::send);
+    }
+
+    /**
+     * @param body text sent as the request body
+     * @return a future completed with the response; cancelling it aborts the request
+     * @see #send(String)
+     * @since 1.1
+     */
+    public CompletableFuture<HttpURLResponse> sendAsync(String body) {
+        return sendAsync(() -> send(body));
+    }
+
+    /**
+     * @param blob stream sent as the request body
+     * @return a future completed with the response; cancelling it aborts the request
+     * @see #send(InputStream)
+     * @since 1.1
+     */
+    public CompletableFuture<HttpURLResponse> sendAsync(InputStream blob) {
+        return sendAsync(() -> send(blob));
+    }
+
+    /**
+     * @param httpURLRequestData form data sent with the request
+     * @return a future completed with the response; cancelling it aborts the request
+     * @see #send(HttpURLRequestData)
+     * @since 1.1
+     */
+    public CompletableFuture<HttpURLResponse> sendAsync(HttpURLRequestData httpURLRequestData) {
+        return sendAsync(() -> send(httpURLRequestData));
+    }
+
+    /**
+     * @param blob          stream sent as the request body
+     * @param contentLength number of bytes {@code blob} provides, or {@code -1} if unknown
+     * @return a future completed with the response; cancelling it aborts the request
+     * @see #send(InputStream, long)
+     * @since 1.1
+     */
+    public CompletableFuture<HttpURLResponse> sendAsync(InputStream blob, long contentLength) {
+        return sendAsync(() -> send(blob, contentLength));
+    }
+
+    private CompletableFuture<HttpURLResponse> sendAsync(Callable<HttpURLResponse> call) {
+        checkState();
+        AbortableFuture future = new AbortableFuture(this);
+        getAsyncExecutor().execute(() -> {
+            if (future.isDone()) return;
+            try {
+                HttpURLResponse response = call.call();
+                if (!future.complete(response)) response.close();
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * send the request without body, and build its response on the executor once the transport received it
+     */
+    private CompletableFuture<HttpURLResponse> sendNonBlocking() {
+        checkState();
+        AbortableFuture future = new AbortableFuture(this);
+        deadline = HttpURLDeadline.after(callTimeout);
+        events = new HttpURLEventDispatcher(eventListener, method, url);
+        events.requestStart();
+        CompletableFuture<Void> received;
+        try {
+            initSendData();
+            received = exchange.whenReceived(responseMode == HttpURLResponseMode.BUFFERED);
+            if (received != null) {
+                exchange.connect();
+                events.connectionAcquired();
+            }
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(failed(e, null, null));
+            return future;
+        }
+        ScheduledFuture<?> watchdog = watchDeadline();
+        if (received == null) {
+            // the exchange is carried by a blocking transport, a thread of the executor waits for it
+            getAsyncExecutor().execute(() -> receive(future, watchdog, true));
+        } else {
+            received.whenCompleteAsync((ignored, e) -> receive(future, watchdog, false), getAsyncExecutor());
+        }
+        return future;
+    }
+
+    /**
+     * complete {@code future} with the response of the exchange, or its failure
+     *
+     * @param connect whether the exchange is still to be sent
+     */
+    private void receive(CompletableFuture<HttpURLResponse> future, ScheduledFuture<?> watchdog, boolean connect) {
+        try {
+            if (connect) {
+                exchange.connect();
+                events.connectionAcquired();
+            }
+            HttpURLResponse response = new HttpURLResponse(exchange, method, responseMode, maxResponseSize, contentDecoding, lease, events, deadline, watchdog);
+            if (!future.complete(response)) response.close();
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(failed(e, watchdog, null));
+        }
+    }
+
+    private Executor getAsyncExecutor() {
+        if (executor != null) return executor;
+        return client != null ? client.getExecutor() : HttpURLExecutors.defaultExecutor();
+    }
+
+    /**
+     * send the request, or wait for the response of an identical request in flight
+     *
+     * @param repeatable whether {@code requestBody} can be written more than once
+     */
+    private HttpURLResponse execute(RequestBody requestBody, boolean repeatable) throws IOException {
+        deadline = HttpURLDeadline.after(callTimeout);
+        HttpURLCoalescer coalescer = this.coalescer;
+        if (coalescer != null && requestBody == null && responseMode == HttpURLResponseMode.BUFFERED
+                && (method.equals("GET") || method.equals("HEAD"))) {
+            String key = coalescingKey();
+            CompletableFuture<HttpURLResponse> call = new CompletableFuture<>();
+            CompletableFuture<HttpURLResponse> shared = coalescer.join(key, call);
+            if (shared == null) return coalescer.send(key, call, () -> executeRetrying(null, repeatable));
+            return awaitCoalesced(shared);
+        }
+        return executeRetrying(requestBody, repeatable);
+    }
+
+    /**
+     * @return what identifies the identical requests allowed to share a response
+     */
+    private String coalescingKey() {
+        TreeMap<String, String> sortedHeaders = new TreeMap<>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            sortedHeaders.put(header.getKey().toLowerCase(Locale.ROOT), header.getValue());
+        }
+        StringBuilder key = new StringBuilder(method).append(' ').append(url).append('\n');
+        for (Map.Entry<String, String> header : sortedHeaders.entrySet()) {
+            key.append(header.getKey()).append(": ").append(header.getValue()).append('\n');
+        }
+        return key.append(contentDecoding).append(' ').append(maxResponseSize).toString();
+    }
+
+    /**
+     * wait for the response of the identical request sent by {@code shared}, and take a view of it
+     */
+    private HttpURLResponse awaitCoalesced(CompletableFuture<HttpURLResponse> shared) throws IOException {
+        this.sent = true;
+        events = new HttpURLEventDispatcher(eventListener, method, url);
+        events.requestStart();
+        CompletableFuture<HttpURLResponse> coalesced = shared.thenApply(HttpURLResponse::share);
+        this.coalesced = coalesced;
+        if (aborted) coalesced.cancel(false);
+        try {
+            HttpURLResponse response = deadline.isBounded()
+                    ? coalesced.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : coalesced.get();
+            events.responseHeaders(response.getResponseCode());
+            events.bodyCompleted(0);
+            return response;
+        } catch (TimeoutException e) {
+            SocketTimeoutException timeout = deadline.exceeded();
+            events.failure(timeout);
+            throw timeout;
+        } catch (CancellationException e) {
+            HttpURLRequestException abort = new HttpURLRequestException("request aborted");
+            events.failure(abort);
+            throw abort;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            IOException failure = failureOf(e);
+            events.failure(failure);
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the {@link IOException} that failed a call run on another thread
+     * @throws RuntimeException if the call failed with it
+     */
+    private static IOException failureOf(ExecutionException e) {
+        if (e.getCause() instanceof IOException) return (IOException) e.getCause();
+        if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+        throw new HttpURLRequestException(e.getCause());
+    }
+
+    /**
+     * send the request, again as long as its retry policy allows it
+     *
+     * @param repeatable whether {@code requestBody} can be written more than once
+     */
+    private HttpURLResponse executeRetrying(RequestBody requestBody, boolean repeatable) throws IOException {
+        HttpURLRetryPolicy retryPolicy = this.retryPolicy;
+        if (retryPolicy == null) return executeOnce(requestBody);
+        boolean hedged = retryPolicy.isHedging() && requestBody == null && method.equals("GET");
+        boolean idempotent = HttpURLRetryPolicy.isIdempotent(method);
+        for (int attempt = 1; ; attempt++) {
+            long delay;
+            bodyStarted = false;
+            try {
+                HttpURLResponse response = hedged ? executeHedged(retryPolicy) : executeOnce(requestBody);
+                delay = retryPolicy.retryDelay(response, attempt, idempotent, repeatable);
+                // a retry that could not complete before the deadline is not worth its wait
+                if (delay < 0 || !deadline.allows(delay)) return response;
+                response.close();
+            } catch (IOException e) {
+                delay = retryPolicy.retryDelay(e, attempt, idempotent, repeatable || !bodyStarted);
+                if (delay < 0 || aborted || !deadline.allows(delay)) throw e;
+            }
+            pause(delay);
+        }
+    }
+
+    /**
+     * wait before a retry, returning early if the request is aborted
+     */
+    private void pause(long delay) throws InterruptedIOException {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        synchronized (pauseLock) {
+            long remaining;
+            while (!aborted && (remaining = end - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(pauseLock, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting to retry");
+                }
+            }
+        }
+    }
+
+    /**
+     * send the request, and a copy of it if no response came after the hedging delay of {@code retryPolicy};
+     * the first response is returned and the other request aborted
+     */
+    private HttpURLResponse executeHedged(HttpURLRetryPolicy retryPolicy) throws IOException {
+        CompletableFuture<HttpURLResponse> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        HttpURLRequest hedge = copy();
+        Executor executor = getAsyncExecutor();
+        executor.execute(() -> runHedged(this, hedge, retryPolicy, winner, running));
+        ScheduledFuture<?> timer = HttpURLExecutors.scheduler().schedule(() -> {
+            if (winner.isDone() || aborted) return;
+            running.incrementAndGet();
+            this.hedge = hedge;
+            executor.execute(() -> runHedged(hedge, this, retryPolicy, winner, running));
+        }, retryPolicy.hedgeDelay(), TimeUnit.MILLISECONDS);
+        try {
+            if (!deadline.isBounded()) return winner.get();
+            return winner.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            abort();
+            throw deadline.exceeded();
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            throw failureOf(e);
+        } finally {
+            timer.cancel(false);
         }
+    }
 
-        return new HttpURLResponse(httpURLConnection);
+    private static void runHedged(HttpURLRequest request, HttpURLRequest other, HttpURLRetryPolicy retryPolicy,
+                                  CompletableFuture<HttpURLResponse> winner, AtomicInteger running) {
+        long start = System.nanoTime();
+        try {
+            HttpURLResponse response = request.executeOnce(null);
+            if (winner.complete(response)) {
+                retryPolicy.recordHedgeLatency(System.nanoTime() - start);
+                disconnectAsync(other.exchange);
+            } else {
+                response.close();
+            }
+        } catch (Throwable e) {
+            if (running.decrementAndGet() == 0) winner.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return an opened copy of this request, sent as its hedge
+     */
+    private HttpURLRequest copy() {
+        HttpURLRequest copy = new HttpURLRequest(client);
+        copy.open(method, url, headers);
+        copy.timeout = timeout;
+        copy.connectTimeout = connectTimeout;
+        copy.deadline = deadline;
+        copy.hostLimiter = hostLimiter;
+        copy.responseMode = responseMode;
+        copy.maxResponseSize = maxResponseSize;
+        copy.cache = null;
+        copy.contentDecoding = contentDecoding;
+        copy.eventListener = eventListener;
+        copy.transport = transport;
+        return copy;
+    }
+
+    /**
+     * @return whether the response may come from the cache, which only keeps whole and decoded bodies
+     */
+    private boolean isCacheable() {
+        return contentDecoding && !hasRequestHeader("Range") && !hasRequestHeader("If-Range");
+    }
+
+    private HttpURLResponse executeOnce(RequestBody requestBody) throws IOException {
+        events = new HttpURLEventDispatcher(eventListener, method, url);
+        events.requestStart();
+        HttpURLCache cache = requestBody == null && method.equals("GET") && isCacheable() ? this.cache : null;
+        HttpURLCache.Entry cached = null;
+        if (cache != null) {
+            cached = cache.get(url, headers);
+            if (cached != null && cached.isFresh(headers)) {
+                this.sent = true;
+                HttpURLResponse response = cache.hit(cached);
+                events.responseHeaders(response.getResponseCode());
+                events.bodyCompleted(0);
+                return response;
+            }
+        }
+        ScheduledFuture<?> watchdog = null;
+        HttpURLHostLimiter.Permit permit = null;
+        try {
+            deadline.check();
+            if (hostLimiter != null) permit = hostLimiter.acquire(url, deadline, () -> aborted);
+            initSendData();
+            watchdog = watchDeadline();
+            if (cached != null) cached.addConditions(exchange);
+            if (requestBody != null) {
+                requestBody.writeTo(exchange);
+            } else {
+                exchange.connect();
+                events.connectionAcquired();
+            }
+            HttpURLResponse response = new HttpURLResponse(exchange, method, responseMode, maxResponseSize, contentDecoding, lease, events, deadline, watchdog);
+            if (permit != null) permit.release(response);
+            return cache != null ? cache.onResponse(url, headers, cached, response) : response;
+        } catch (IOException | RuntimeException e) {
+            Exception failure = failed(e, watchdog, permit);
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            throw (IOException) failure;
+        }
+    }
+
+    /**
+     * release what the failed exchange held
+     *
+     * @return the failure to report: {@code e}, or the call timeout which caused it
+     */
+    private Exception failed(Exception e, ScheduledFuture<?> watchdog, HttpURLHostLimiter.Permit permit) {
+        if (watchdog != null) watchdog.cancel(false);
+        if (permit != null) permit.release(e);
+        if (exchange != null) exchange.disconnect();
+        if (lease != null) lease.release(false);
+        if (e instanceof IOException && (deadlineExceeded || deadline.isExpired())) {
+            IOException timeout = deadline.exceeded();
+            timeout.initCause(e);
+            events.failure(timeout);
+            return timeout;
+        }
+        events.failure(e);
+        return e;
+    }
+
+    /**
+     * close the connection when the deadline passes, so that a call blocked on it fails
+     *
+     * @return the scheduled close, cancelled once the response is released, or {@code null} without deadline
+     */
+    private ScheduledFuture<?> watchDeadline() {
+        if (!deadline.isBounded()) return null;
+        HttpURLExchange exchange = this.exchange;
+        return HttpURLExecutors.scheduler().schedule(() -> {
+            deadlineExceeded = true;
+            disconnectAsync(exchange);
+        }, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
     }
 
-    private void initURLParams(HashMap<String, String> formDataFields) {
+    void initURLParams(HashMap<String, String> formDataFields) {
         StringBuilder urlParam = new StringBuilder();
         String url = this.url.toString();
         if (url.contains("?")) {
@@ -208,4 +948,112 @@ public class HttpURLRequest {
             e.printStackTrace();
         }
     }
+
+    private interface RequestBody {
+        void writeTo(HttpURLExchange exchange) throws IOException;
+    }
+
+    private static final class AbortableFuture extends CompletableFuture<HttpURLResponse> {
+        private final HttpURLRequest request;
+
+        AbortableFuture(HttpURLRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) request.abort();
+            return cancelled;
+        }
+    }
+
+    private static final class ProgressOutputStream extends FilterOutputStream {
+        private final long total;
+        private final HttpURLProgressListener listener;
+        private final long start = System.nanoTime();
+        private long transferred = 0;
+        private long lastNotification = start;
+        private boolean closed = false;
+
+        ProgressOutputStream(OutputStream outputStream, long total, HttpURLProgressListener listener) {
+            super(outputStream);
+            this.total = total;
+            this.listener = listener;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            transferred(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            transferred(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                notifyListener(System.nanoTime());
+            }
+        }
+
+        private void transferred(int count) {
+            transferred += count;
+            long now = System.nanoTime();
+            if (now - lastNotification >= PROGRESS_INTERVAL) {
+                lastNotification = now;
+                notifyListener(now);
+            }
+        }
+
+        private void notifyListener(long now) {
+            double seconds = Math.max(now - start, 1) / 1e9;
+            listener.onProgress(transferred, total, transferred / seconds);
+        }
+    }
+
+    /**
+     * counts the bytes of the request body as they are sent and reports them when it is complete
+     */
+    private static final class RequestBodyOutputStream extends FilterOutputStream {
+        private final HttpURLEventDispatcher events;
+        private final HttpURLDeadline deadline;
+        private long count = 0;
+        private boolean closed = false;
+
+        RequestBodyOutputStream(OutputStream outputStream, HttpURLEventDispatcher events, HttpURLDeadline deadline) {
+            super(outputStream);
+            this.events = events;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            deadline.check();
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            deadline.check();
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            if (!closed) {
+                closed = true;
+                events.requestBodyWritten(count);
+            }
+        }
+    }
 }
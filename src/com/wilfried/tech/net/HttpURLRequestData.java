@@ -7,6 +7,8 @@ package com.wilfried.tech.net;
 import java.io.*;
 import java.net.URLConnection;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 
 /**
@@ -104,6 +106,16 @@ public class HttpURLRequestData {
         return mParams;
     }
 
+    /**
+     * @return whether the body can be written more than once, which streams cannot
+     */
+    boolean isRepeatable() {
+        for (Blob blob : mFiles.values()) {
+            if (!blob.isRepeatable()) return false;
+        }
+        return true;
+    }
+
     HashMap<String, Blob> getBlobs() {
         return mFiles;
     }
@@ -120,81 +132,190 @@ public class HttpURLRequestData {
         if (!file.isFile()) {
             throw new FileNotFoundException(file.getName() + " isn't a file");
         }
-        addFile(name, file.getName(), new FileInputStream(file));
+        mFiles.put(name, new FileBlob(file.getName(), file.toPath(), file.length()));
+    }
+
+    /**
+     * add a file part read from {@code path}; the file is opened only while the body is written,
+     * and is sent with the size it has when it is added
+     *
+     * @param name name of the form field
+     * @param path the file to send
+     * @throws IOException if {@code path} is not a readable regular file
+     * @since 1.1
+     */
+    public void addFile(String name, Path path) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            throw new FileNotFoundException(path + " isn't a file");
+        }
+        mFiles.put(name, new FileBlob(path.getFileName().toString(), path, Files.size(path)));
     }
 
     public void addFile(String name, String filename, InputStream inputStream) {
-        mFiles.put(name, new Blob(filename, inputStream));
+        addFile(name, filename, inputStream, -1);
+    }
+
+    /**
+     * add a file part whose size is known in advance, so that the
+     * request can be sent with an exact {@code Content-Length}
+     *
+     * @param name        name of the form field
+     * @param filename    name of the file sent to the server
+     * @param inputStream content of the file
+     * @param length      number of bytes {@code inputStream} will provide, or {@code -1} if unknown
+     * @since 1.1
+     */
+    public void addFile(String name, String filename, InputStream inputStream, long length) {
+        mFiles.put(name, new StreamBlob(filename, inputStream, length));
     }
 
     public void removeFile(String name) {
         mFiles.remove(name);
     }
 
-    String getRawFieldsHttpData() {
-        ByteArrayOutputStream rawHttpData = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(rawHttpData);
+    /**
+     * compute the exact size of the multipart body produced by {@link #writeTo(OutputStream)}
+     *
+     * @return the body size in bytes, or {@code -1} if the size of a file part is unknown
+     * @since 1.1
+     */
+    long getContentLength() {
+        long length = 0;
         for (String name : mParams.keySet()) {
-            addFormField(name, get(name), writer);
+            length += getFormFieldHeader(name).length + encode(get(name)).length + LINE_FEED.length();
         }
-        return rawHttpData.toString();
+        for (String name : mFiles.keySet()) {
+            Blob blob = mFiles.get(name);
+            if (blob.getLength() < 0) return -1;
+            length += getFilePartHeader(name, blob).length + blob.getLength() + LINE_FEED.length();
+        }
+        return length + getClosingBoundary().length;
     }
 
-    String getRawFileHttpData() {
-        ByteArrayOutputStream rawHttpData = new ByteArrayOutputStream();
-        PrintWriter writer = new PrintWriter(rawHttpData);
+    /**
+     * write the multipart body to {@code outputStream}, streaming
+     * the file parts without buffering them in memory
+     *
+     * @param outputStream destination of the body
+     * @throws IOException if an I/O error occurs
+     * @since 1.1
+     */
+    void writeTo(OutputStream outputStream) throws IOException {
+        for (String name : mParams.keySet()) {
+            addFormField(name, get(name), outputStream);
+        }
         for (String name : mFiles.keySet()) {
-            try {
-                addFilePart(name, mFiles.get(name), writer, rawHttpData);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            addFilePart(name, mFiles.get(name), outputStream);
         }
-        return rawHttpData.toString();
+        outputStream.write(getClosingBoundary());
     }
 
     @Override
     public String toString() {
-        return getRawFieldsHttpData() + getRawFileHttpData();
+        ByteArrayOutputStream rawHttpData = new ByteArrayOutputStream();
+        try {
+            writeTo(rawHttpData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return rawHttpData.toString(StandardCharsets.UTF_8);
     }
 
-    private void addFormField(String name, String value, PrintWriter writer) {
-        writer.append("--").append(BOUNDARY).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"").append(name).append("\"").append(LINE_FEED);
-        writer.append("Content-Type: text/plain; charset=").append(mCharset).append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.append(value).append(LINE_FEED);
-        writer.flush();
+    private byte[] getFormFieldHeader(String name) {
+        return encode("--" + BOUNDARY + LINE_FEED +
+                "Content-Disposition: form-data; name=\"" + name + "\"" + LINE_FEED +
+                "Content-Type: text/plain; charset=" + mCharset + LINE_FEED +
+                LINE_FEED);
     }
 
-    private void addFilePart(String name, Blob blob, PrintWriter writer, OutputStream outputStream) throws IOException {
-        writer.append("--").append(BOUNDARY).append(LINE_FEED);
-        writer.append("Content-Disposition: form-data; name=\"").append(name).append("\"; filename=\"").append(blob.getFilename()).append("\"").append(LINE_FEED);
-        writer.append("Content-Type: ").append(URLConnection.guessContentTypeFromName(blob.getFilename())).append(LINE_FEED);
-        writer.append("Content-Transfer-Encoding: binary").append(LINE_FEED);
-        writer.append(LINE_FEED);
-        writer.flush();
+    private byte[] getFilePartHeader(String name, Blob blob) {
+        String contentType = URLConnection.guessContentTypeFromName(blob.getFilename());
+        return encode("--" + BOUNDARY + LINE_FEED +
+                "Content-Disposition: form-data; name=\"" + name + "\"; filename=\"" + blob.getFilename() + "\"" + LINE_FEED +
+                "Content-Type: " + (contentType == null ? "application/octet-stream" : contentType) + LINE_FEED +
+                "Content-Transfer-Encoding: binary" + LINE_FEED +
+                LINE_FEED);
+    }
+
+    private byte[] getClosingBoundary() {
+        return encode("--" + BOUNDARY + "--" + LINE_FEED);
+    }
+
+    private byte[] encode(String value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void addFormField(String name, String value, OutputStream outputStream) throws IOException {
+        outputStream.write(getFormFieldHeader(name));
+        outputStream.write(encode(value));
+        outputStream.write(encode(LINE_FEED));
+    }
 
-        new BufferedInputStream(blob.getStream()).transferTo(outputStream);
-        writer.append(LINE_FEED);
-        writer.flush();
+    private void addFilePart(String name, Blob blob, OutputStream outputStream) throws IOException {
+        outputStream.write(getFilePartHeader(name, blob));
+        blob.writeTo(outputStream);
+        outputStream.write(encode(LINE_FEED));
     }
 
-    private static class Blob {
+    private abstract static class Blob {
         private final String filename;
-        private final InputStream stream;
+        private final long length;
 
-        public Blob(String filename, InputStream inputStream) {
+        Blob(String filename, long length) {
             this.filename = filename;
-            this.stream = inputStream;
+            this.length = length;
         }
 
         public String getFilename() {
             return filename;
         }
 
-        public InputStream getStream() {
-            return stream;
+        public long getLength() {
+            return length;
+        }
+
+        abstract boolean isRepeatable();
+
+        abstract void writeTo(OutputStream outputStream) throws IOException;
+    }
+
+    private static final class StreamBlob extends Blob {
+        private final InputStream stream;
+
+        StreamBlob(String filename, InputStream inputStream, long length) {
+            super(filename, length);
+            this.stream = inputStream;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        void writeTo(OutputStream outputStream) throws IOException {
+            try (InputStream inputStream = stream) {
+                HttpURLBuffers.transfer(inputStream, outputStream);
+            }
+        }
+    }
+
+    private static final class FileBlob extends Blob {
+        private final Path path;
+
+        FileBlob(String filename, Path path, long length) {
+            super(filename, length);
+            this.path = path;
+        }
+
+        @Override
+        boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        void writeTo(OutputStream outputStream) throws IOException {
+            HttpURLBuffers.transfer(path, getLength(), outputStream);
         }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.net.MalformedURLException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * {@code HttpURLRequestTemplate} is an immutable, thread-safe recipe for {@link HttpURLRequest}.
+ * <p>
+ * The method, the base URL and the default headers, including the {@code Authorization} header,
+ * are validated and encoded once when the template is built; {@link #newRequest(String, Map)}
+ * only appends a path and a query to the base URL. The {@code with} methods return a modified
+ * copy, so a template can be shared between threads and specialized freely.
+ * </p>
+ * <pre>{@code
+ * HttpURLRequestTemplate users = new HttpURLRequestTemplate("GET", "https://api.example.com/users")
+ *         .withHeader("Accept", "application/json")
+ *         .withBasicAuth("user", "secret");
+ * HttpURLResponse response = users.newRequest("/42").send();
+ * }</pre>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLRequestTemplate {
+    private final String method;
+    private final URL url;
+    private final String baseUrl;
+    private final Map<String, String> headers;
+    private final HttpURLClient client;
+
+    /**
+     * @param method request method
+     * @param url    base URL of the requests
+     * @throws ProtocolException     if {@code method} is not supported
+     * @throws MalformedURLException if {@code url} is invalid
+     */
+    public HttpURLRequestTemplate(@NotNull String method, @NotNull String url) throws ProtocolException, MalformedURLException {
+        this(HttpURLRequest.checkMethod(method), new URL(url), Collections.emptyMap(), null);
+    }
+
+    private HttpURLRequestTemplate(String method, URL url, Map<String, String> headers, HttpURLClient client) {
+        this.method = method;
+        this.url = url;
+        this.baseUrl = url.toString();
+        this.headers = headers;
+        this.client = client;
+    }
+
+    /**
+     * @return a copy of this template whose requests use {@code method}
+     * @throws ProtocolException if {@code method} is not supported
+     */
+    public HttpURLRequestTemplate withMethod(@NotNull String method) throws ProtocolException {
+        return new HttpURLRequestTemplate(HttpURLRequest.checkMethod(method), url, headers, client);
+    }
+
+    /**
+     * @return a copy of this template whose requests carry the header {@code name}
+     */
+    public HttpURLRequestTemplate withHeader(@NotNull String name, @NotNull String value) {
+        Map<String, String> headers = new HashMap<>(this.headers);
+        headers.put(Objects.requireNonNull(name), Objects.requireNonNull(value));
+        return new HttpURLRequestTemplate(method, url, Collections.unmodifiableMap(headers), client);
+    }
+
+    /**
+     * @return a copy of this template whose requests authenticate with {@code Basic} credentials
+     */
+    public HttpURLRequestTemplate withBasicAuth(@NotNull String username, @NotNull String password) {
+        return withHeader("Authorization", HttpURLRequest.basicAuthorization(username, password));
+    }
+
+    /**
+     * @param client client whose connections are used, or {@code null}
+     * @return a copy of this template whose requests are created by {@code client}
+     */
+    public HttpURLRequestTemplate withClient(HttpURLClient client) {
+        return new HttpURLRequestTemplate(method, url, headers, client);
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URL getURL() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return an opened request to the base URL, ready to be configured and sent
+     */
+    public HttpURLRequest newRequest() {
+        return open(url);
+    }
+
+    /**
+     * @param path path appended to the base URL, such as {@code "/42"}
+     * @return an opened request, ready to be configured and sent
+     * @throws MalformedURLException if the resulting URL is invalid
+     */
+    public HttpURLRequest newRequest(@NotNull String path) throws MalformedURLException {
+        return newRequest(path, Collections.emptyMap());
+    }
+
+    /**
+     * @param path  path appended to the base URL, or an empty string
+     * @param query query parameters, encoded and appended to the query of the base URL
+     * @return an opened request, ready to be configured and sent
+     * @throws MalformedURLException if the resulting URL is invalid
+     */
+    public HttpURLRequest newRequest(@NotNull String path, @NotNull Map<String, String> query) throws MalformedURLException {
+        if (path.isEmpty() && query.isEmpty()) return open(url);
+        return open(new URL(resolve(path, query)));
+    }
+
+    private HttpURLRequest open(URL url) {
+        HttpURLRequest request = client != null ? client.newRequest() : new HttpURLRequest();
+        request.open(method, url, headers);
+        return request;
+    }
+
+    private String resolve(String path, Map<String, String> query) {
+        int queryStart = baseUrl.indexOf('?');
+        String base = queryStart < 0 ? baseUrl : baseUrl.substring(0, queryStart);
+        StringBuilder builder = new StringBuilder(baseUrl.length() + path.length() + 16 * query.size());
+        if (!path.isEmpty() && base.endsWith("/") && path.startsWith("/")) {
+            builder.append(base, 0, base.length() - 1);
+        } else {
+            builder.append(base);
+            if (!path.isEmpty() && !base.endsWith("/") && !path.startsWith("/") && !path.startsWith("?")) builder.append('/');
+        }
+        builder.append(path);
+        boolean hasQuery = path.indexOf('?') >= 0;
+        if (queryStart >= 0) {
+            builder.append(hasQuery ? '&' : '?').append(baseUrl, queryStart + 1, baseUrl.length());
+            hasQuery = true;
+        }
+        for (Map.Entry<String, String> parameter : query.entrySet()) {
+            builder.append(hasQuery ? '&' : '?')
+                    .append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8));
+            hasQuery = true;
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLRequestTemplate{" + method + " " + baseUrl + "}";
+    }
+}
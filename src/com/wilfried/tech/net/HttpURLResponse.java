@@ -9,43 +9,114 @@ import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.io.PushbackInputStream;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
-public final class HttpURLResponse {
+public final class HttpURLResponse implements Closeable {
+    private static final long MAX_DRAIN_SIZE = 64 * 1024;
 
     private final int responseCode;
     private final String statusText;
     private final String responseType;
     private final URL responseUrl;
     private final byte[] responseStream;
-    private final Map<String, String> responseHeaders = new HashMap<>();
+    private final InputStream responseBody;
+    private final HttpURLResponseMode responseMode;
+    private final HttpURLExchange exchange;
+    private final HttpURLConnectionPool.Lease lease;
+    private final ScheduledFuture<?> watchdog;
+    private final HttpURLHeaders headers;
+    private final CountingInputStream encodedBody;
+    private final CountingInputStream decodedBody;
+    private volatile Map<String, String> allResponseHeaders = null;
 
-
-    HttpURLResponse(HttpURLConnection httpURLConnection) throws IOException {
-        responseCode = httpURLConnection.getResponseCode();
-        statusText = httpURLConnection.getResponseMessage();
-        responseType = httpURLConnection.getContentType();
-        responseUrl = httpURLConnection.getURL();
-        Map<String, List<String>> headers = httpURLConnection.getHeaderFields();
-        for (String key : headers.keySet()) {
-            if (!Objects.equals(key, null)) responseHeaders.put(key, headers.get(key).get(0));
+    HttpURLResponse(HttpURLExchange exchange, String method, HttpURLResponseMode responseMode, long maxResponseSize, boolean decodeContent, HttpURLConnectionPool.Lease lease,
+                    HttpURLEventDispatcher events, HttpURLDeadline deadline, ScheduledFuture<?> watchdog) throws IOException {
+        this.exchange = exchange;
+        this.lease = lease;
+        this.watchdog = watchdog;
+        this.responseMode = responseMode;
+        responseCode = exchange.getResponseCode();
+        events.responseHeaders(responseCode);
+        statusText = exchange.getResponseMessage();
+        responseUrl = exchange.getURL();
+        HttpURLHeaders exchangeHeaders = new HttpURLHeaders(exchange.getHeaderFields());
+        responseType = exchangeHeaders.getContentType();
+        String contentEncoding = decodeContent ? exchangeHeaders.getContentEncoding() : null;
+        boolean encoded = contentEncoding != null && (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("deflate"));
+        headers = encoded ? new HttpURLHeaders(withoutEncodingHeaders(exchangeHeaders.getHeaderFields())) : exchangeHeaders;
+        // the Content-Length of a HEAD, 204 or 304 response describes a body that is not sent
+        boolean bodyless = method.equals("HEAD") || responseCode == HttpURLRequest.HTTP_NO_CONTENT
+                || responseCode == HttpURLRequest.HTTP_NOT_MODIFIED;
+        long contentLength = bodyless ? 0 : exchangeHeaders.getContentLength();
+        if (!encoded && maxResponseSize >= 0 && contentLength > maxResponseSize) {
+            release(false);
+            throw new IOException("response body of " + contentLength + " bytes exceeds the maximum size of " + maxResponseSize + " bytes");
+        }
+        InputStream inputStream = exchange.getResponseBody();
+        encodedBody = new CountingInputStream(inputStream);
+        try {
+            inputStream = encoded ? decode(encodedBody, contentEncoding) : encodedBody;
+        } catch (IOException | RuntimeException e) {
+            release(false);
+            throw e;
         }
-        if (responseCode >= HttpURLConnection.HTTP_OK && responseCode < HttpURLConnection.HTTP_BAD_REQUEST) {
-            responseStream = toBytesArray(httpURLConnection.getInputStream());
+        decodedBody = new BodyInputStream(inputStream, maxResponseSize, encodedBody, events, deadline);
+
+        if (responseMode == HttpURLResponseMode.STREAMING) {
+            responseStream = null;
+            responseBody = decodedBody;
         } else {
-            responseStream = toBytesArray(httpURLConnection.getErrorStream());
+            try {
+                responseStream = toBytesArray(decodedBody, encoded ? -1 : contentLength);
+            } catch (IOException | RuntimeException e) {
+                release(false);
+                throw e;
+            }
+            release(true);
+            responseBody = null;
         }
+    }
 
-        httpURLConnection.disconnect();
+    /**
+     * build a buffered response from data received earlier
+     */
+    HttpURLResponse(int responseCode, String statusText, URL responseUrl, Map<String, List<String>> headerFields, byte[] responseStream) {
+        this.exchange = null;
+        this.lease = null;
+        this.watchdog = null;
+        this.responseMode = HttpURLResponseMode.BUFFERED;
+        this.responseCode = responseCode;
+        this.statusText = statusText;
+        this.responseUrl = responseUrl;
+        this.headers = new HttpURLHeaders(headerFields);
+        this.responseStream = responseStream;
+        this.responseBody = null;
+        this.encodedBody = null;
+        this.decodedBody = null;
+        this.responseType = headers.getContentType();
     }
 
     public String getResponseType() {
@@ -64,38 +135,330 @@ public final class HttpURLResponse {
         return responseUrl;
     }
 
+    /**
+     * @param headerKey header name, in any case
+     * @return the first value of the header, or {@code null} if it is absent
+     * @see #getHeaders()
+     */
     public @Nullable String getResponseHeader(String headerKey) {
-        if (responseHeaders.containsKey(headerKey)) return responseHeaders.get(headerKey);
-        return null;
+        return headers.getFirst(headerKey);
     }
 
+    /**
+     * @return the first value of each header, in a read-only case-insensitive map
+     * @see #getHeaders()
+     */
     public Map<String, String> getAllResponseHeaders() {
-        return new HashMap<>(responseHeaders);
+        Map<String, String> allResponseHeaders = this.allResponseHeaders;
+        if (allResponseHeaders == null) {
+            Map<String, String> firstValues = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, List<String>> header : headers.toMap().entrySet()) {
+                if (!header.getValue().isEmpty()) firstValues.put(header.getKey(), header.getValue().get(0));
+            }
+            allResponseHeaders = Collections.unmodifiableMap(firstValues);
+            this.allResponseHeaders = allResponseHeaders;
+        }
+        return allResponseHeaders;
+    }
+
+    /**
+     * @return the response headers, case-insensitive and with every value of repeated headers
+     * @since 1.1
+     */
+    public @NotNull HttpURLHeaders getHeaders() {
+        return headers;
     }
 
+    public HttpURLResponseMode getResponseMode() {
+        return responseMode;
+    }
+
+    /**
+     * return the response body; in {@link HttpURLResponseMode#STREAMING} mode this is the
+     * live connection stream, which can be consumed only once
+     *
+     * @return the response body
+     */
     public @NotNull InputStream getResponseStream() {
+        if (responseBody != null) return responseBody;
         return new ByteArrayInputStream(responseStream);
     }
 
+    /**
+     * return the response body as a channel
+     *
+     * @return a channel reading the response body
+     * @since 1.1
+     */
+    public @NotNull ReadableByteChannel getResponseChannel() {
+        return Channels.newChannel(getResponseStream());
+    }
+
+    /**
+     * decode the response body with the charset of its {@code Content-Type}, UTF-8 by default;
+     * line terminators are kept as received. In {@link HttpURLResponseMode#STREAMING} mode, reading
+     * the body closes the response
+     *
+     * @return the response body as text
+     * @throws IOException if the body of a streaming response cannot be read
+     */
     public String getResponseText() throws IOException {
-        StringBuilder response = new StringBuilder();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(getResponseStream()));
-        String line;
-        while ((line = reader.readLine()) != null) {
-            response.append(line).append("\n");
+        if (responseStream != null) return new String(responseStream, getCharset());
+        try (this) {
+            return new String(HttpURLBuffers.readAll(getResponseStream(), -1), getCharset());
+        }
+    }
+
+    /**
+     * @return the charset of the {@code Content-Type} of the response, UTF-8 when none is declared
+     * @since 1.1
+     */
+    public @NotNull Charset getCharset() {
+        Charset charset = headers.getCharset();
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+
+    /**
+     * read the response body line by line as it arrives; in {@link HttpURLResponseMode#STREAMING} mode the body
+     * is never held in memory as a whole, and closing the stream closes the response
+     *
+     * @return a lazy stream of the lines of the body, without their terminator; read errors are thrown as
+     * {@link java.io.UncheckedIOException}
+     * @since 1.1
+     */
+    public @NotNull Stream<String> getResponseLines() {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(getResponseStream(), getCharset()));
+        return reader.lines().onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * read a newline-delimited JSON body (NDJSON, JSON Lines) record by record as it arrives
+     *
+     * @return a lazy stream of the records of the body, blank lines skipped
+     * @see #getResponseLines()
+     * @since 1.1
+     */
+    public @NotNull Stream<String> getResponseRecords() {
+        return getResponseLines().filter(line -> !line.isBlank());
+    }
+
+    /**
+     * @param parser function turning a JSON record into an object, typically bound to a JSON library
+     * @return a lazy stream of the parsed records of a newline-delimited JSON body
+     * @see #getResponseRecords()
+     * @since 1.1
+     */
+    public <T> @NotNull Stream<T> getResponseRecords(@NotNull Function<? super String, ? extends T> parser) {
+        return getResponseRecords().map(parser);
+    }
+
+    /**
+     * return the buffered body without copying it
+     *
+     * @return a read-only buffer over the response body
+     * @throws HttpURLRequestException in {@link HttpURLResponseMode#STREAMING} mode, where the body is not buffered
+     * @since 1.1
+     */
+    public @NotNull ByteBuffer getResponseBuffer() {
+        if (responseStream == null) throw new HttpURLRequestException("the body of a streaming response is not buffered");
+        return ByteBuffer.wrap(responseStream).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return number of body bytes received from the server so far, before content decoding
+     * @since 1.1
+     */
+    public long getEncodedBodySize() {
+        return encodedBody != null ? encodedBody.getCount() : responseStream.length;
+    }
+
+    /**
+     * @return number of body bytes delivered to the caller so far, after content decoding
+     * @since 1.1
+     */
+    public long getDecodedBodySize() {
+        return decodedBody != null ? decodedBody.getCount() : responseStream.length;
+    }
+
+    /**
+     * @return a response of its own over the buffered body of this one, which is not copied
+     */
+    HttpURLResponse share() {
+        return new HttpURLResponse(responseCode, statusText, responseUrl, headers.getHeaderFields(), responseStream);
+    }
+
+    Map<String, List<String>> getHeaderFields() {
+        return headers.getHeaderFields();
+    }
+
+    /**
+     * @return the buffered body, or {@code null} in streaming mode
+     */
+    byte[] getBody() {
+        return responseStream;
+    }
+
+    /**
+     * release the connection held by a {@link HttpURLResponseMode#STREAMING} response;
+     * this has no effect on a buffered response
+     *
+     * @throws IOException if an I/O error occurs
+     * @since 1.1
+     */
+    @Override
+    public void close() throws IOException {
+        if (responseBody == null) return;
+        boolean reusable = false;
+        try {
+            reusable = drain(encodedBody);
+            responseBody.close();
+        } finally {
+            release(reusable);
+        }
+    }
+
+    /**
+     * read what is left of a body so that its connection can be kept alive,
+     * giving up on bodies too large to be worth reading
+     */
+    private static boolean drain(InputStream inputStream) {
+        byte[] buffer = HttpURLBuffers.acquire();
+        try {
+            long remaining = MAX_DRAIN_SIZE;
+            int read;
+            while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+                remaining -= read;
+                if (remaining < 0) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            HttpURLBuffers.release(buffer);
+        }
+    }
+
+    private static InputStream decode(InputStream inputStream, String contentEncoding) throws IOException {
+        if (contentEncoding.equalsIgnoreCase("gzip")) {
+            return new GZIPInputStream(inputStream, 8192);
+        }
+        // "deflate" is specified as zlib-wrapped, but some servers send a raw deflate stream
+        PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+        int cmf = pushbackInputStream.read();
+        if (cmf == -1) return pushbackInputStream;
+        int flg = pushbackInputStream.read();
+        if (flg != -1) pushbackInputStream.unread(flg);
+        pushbackInputStream.unread(cmf);
+        boolean zlib = flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushbackInputStream, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static Map<String, List<String>> withoutEncodingHeaders(Map<String, List<String>> headerFields) {
+        Map<String, List<String>> headers = new LinkedHashMap<>(headerFields);
+        headers.keySet().removeIf(key -> key != null && (key.equalsIgnoreCase("Content-Encoding") || key.equalsIgnoreCase("Content-Length")));
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * hand the connection back to the keep-alive cache when it is reusable, close it otherwise
+     */
+    private void release(boolean reusable) {
+        if (watchdog != null) watchdog.cancel(false);
+        if (reusable) {
+            exchange.release();
+        } else {
+            exchange.disconnect();
+        }
+        if (lease != null) lease.release(reusable);
+    }
+
+    /**
+     * @param contentLength size announced by the server, used to allocate the body at once
+     */
+    private byte[] toBytesArray(InputStream inputStream, long contentLength) throws IOException {
+        try (inputStream) {
+            return HttpURLBuffers.readAll(inputStream, contentLength);
         }
-        reader.close();
-        return response.toString();
     }
 
-    private byte[] toBytesArray(InputStream inputStream) throws IOException {
-        ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[4096];
-        int read;
-        while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-            arrayOutputStream.write(buffer, 0, read);
+    /**
+     * the body as given to the caller: bounded by the maximum size and the deadline of the call,
+     * and reporting its end to the listener
+     */
+    private static final class BodyInputStream extends CountingInputStream {
+        private final long limit;
+        private final CountingInputStream encodedBody;
+        private final HttpURLEventDispatcher events;
+        private final HttpURLDeadline deadline;
+
+        BodyInputStream(InputStream inputStream, long limit, CountingInputStream encodedBody, HttpURLEventDispatcher events, HttpURLDeadline deadline) {
+            super(inputStream);
+            this.limit = limit;
+            this.encodedBody = encodedBody;
+            this.events = events;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                deadline.check();
+                return super.read();
+            } catch (IOException e) {
+                throw failure(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                deadline.check();
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw failure(e);
+            }
+        }
+
+        /**
+         * @return {@code e}, or a timeout caused by it when the connection was closed at the deadline
+         */
+        private IOException failure(IOException e) {
+            if (deadline.isExpired() && !(e instanceof SocketTimeoutException)) {
+                IOException timeout = deadline.exceeded();
+                timeout.initCause(e);
+                e = timeout;
+            }
+            events.failure(e);
+            return e;
+        }
+
+        @Override
+        protected void count(long read) throws IOException {
+            super.count(read);
+            if (limit >= 0 && getCount() > limit) {
+                throw new IOException("response body exceeds the maximum size of " + limit + " bytes");
+            }
+        }
+
+        @Override
+        protected void end() {
+            events.bodyCompleted(encodedBody.getCount());
         }
-        inputStream.close();
-        return arrayOutputStream.toByteArray();
     }
 }
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+/**
+ * Describes how the body of an {@link HttpURLResponse} is delivered to the caller
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public enum HttpURLResponseMode {
+    /**
+     * the whole body is read into memory before {@code send()} returns
+     */
+    BUFFERED,
+
+    /**
+     * {@code send()} returns as soon as the headers are received and the body
+     * is read from the live connection, which must be closed by the caller
+     */
+    STREAMING
+}
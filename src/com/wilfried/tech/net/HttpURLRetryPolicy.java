@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@code HttpURLRetryPolicy} tells a {@link HttpURLRequest} when and how long after a failure to send it again.
+ * <p>
+ * A request is retried when its response has one of the retryable status codes, or when it fails
+ * with an {@link IOException}: always when the server could not be reached, only for idempotent
+ * methods otherwise. A body is sent again only if it is repeatable (a {@code String}, or form data
+ * without streams) or if none of it was consumed yet. Non-idempotent requests are only retried on
+ * {@code 429} and {@code 503}, which tell that the request was not processed. The delay before each
+ * attempt grows exponentially with full jitter, unless the response gives a {@code Retry-After}.
+ * </p>
+ * <p>
+ * With {@link #withHedging(double, long)}, a {@code GET} without response after the given
+ * percentile of the latencies observed so far is sent a second time, and the first response wins.
+ * </p>
+ * <p>
+ * Policies are immutable: the {@code with} methods return a modified copy.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLRetryPolicy {
+    /**
+     * 3 attempts, backoff from 100 ms to 10 s, retry on 429, 502, 503 and 504, {@code Retry-After} up to 60 s
+     */
+    public static final HttpURLRetryPolicy DEFAULT = new HttpURLRetryPolicy(3, 100, 10_000,
+            new int[]{429, HttpURLRequest.HTTP_BAD_GATEWAY, HttpURLRequest.HTTP_UNAVAILABLE, HttpURLRequest.HTTP_GATEWAY_TIMEOUT},
+            60_000, -1, 0, null);
+
+    /**
+     * fewest latencies observed before hedging uses their percentile instead of the fallback delay
+     */
+    private static final long MIN_HEDGE_SAMPLES = 20;
+
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final long maxBackoff;
+    private final int[] retryStatuses;
+    private final long maxRetryAfter;
+    private final double hedgePercentile;
+    private final long hedgeFallbackDelay;
+    private final HttpURLLatencyHistogram hedgeLatencies;
+
+    private HttpURLRetryPolicy(int maxAttempts, long initialBackoff, long maxBackoff, int[] retryStatuses, long maxRetryAfter,
+                               double hedgePercentile, long hedgeFallbackDelay, HttpURLLatencyHistogram hedgeLatencies) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.retryStatuses = retryStatuses;
+        this.maxRetryAfter = maxRetryAfter;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeFallbackDelay = hedgeFallbackDelay;
+        this.hedgeLatencies = hedgeLatencies;
+    }
+
+    /**
+     * @param maxAttempts total number of attempts, the first one included
+     */
+    public HttpURLRetryPolicy withMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0) throw new IllegalArgumentException("maxAttempts must be positive");
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryStatuses, maxRetryAfter, hedgePercentile, hedgeFallbackDelay, hedgeLatencies);
+    }
+
+    /**
+     * @param initialBackoff upper bound in milliseconds of the delay before the first retry, doubled at each retry
+     * @param maxBackoff     upper bound in milliseconds of the delay before any retry
+     */
+    public HttpURLRetryPolicy withBackoff(long initialBackoff, long maxBackoff) {
+        if (initialBackoff < 0 || maxBackoff < initialBackoff) throw new IllegalArgumentException("invalid backoff bounds");
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryStatuses, maxRetryAfter, hedgePercentile, hedgeFallbackDelay, hedgeLatencies);
+    }
+
+    /**
+     * @param retryStatuses response codes worth retrying, such as {@link HttpURLRequest#HTTP_UNAVAILABLE}
+     */
+    public HttpURLRetryPolicy withRetryStatuses(@NotNull int... retryStatuses) {
+        int[] statuses = retryStatuses.clone();
+        Arrays.sort(statuses);
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, statuses, maxRetryAfter, hedgePercentile, hedgeFallbackDelay, hedgeLatencies);
+    }
+
+    /**
+     * @param maxRetryAfter longest {@code Retry-After} in milliseconds the request waits for; a response asking for
+     *                      more is returned to the caller instead
+     */
+    public HttpURLRetryPolicy withMaxRetryAfter(long maxRetryAfter) {
+        if (maxRetryAfter < 0) throw new IllegalArgumentException("maxRetryAfter is negative");
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryStatuses, maxRetryAfter, hedgePercentile, hedgeFallbackDelay, hedgeLatencies);
+    }
+
+    /**
+     * send a backup of the {@code GET} requests still waiting for their response after the {@code percentile}
+     * of the response times observed by this policy, or after {@code fallbackDelay} until enough are observed
+     *
+     * @param percentile    percentile of the response times, between 0 and 100, such as {@code 95}
+     * @param fallbackDelay delay in milliseconds used while few response times are known
+     */
+    public HttpURLRetryPolicy withHedging(double percentile, long fallbackDelay) {
+        if (percentile <= 0 || percentile > 100) throw new IllegalArgumentException("percentile must be in ]0, 100]");
+        if (fallbackDelay < 0) throw new IllegalArgumentException("fallbackDelay is negative");
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryStatuses, maxRetryAfter, percentile, fallbackDelay, new HttpURLLatencyHistogram());
+    }
+
+    /**
+     * @return a copy of this policy without hedging
+     */
+    public HttpURLRetryPolicy withoutHedging() {
+        return new HttpURLRetryPolicy(maxAttempts, initialBackoff, maxBackoff, retryStatuses, maxRetryAfter, -1, 0, null);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isHedging() {
+        return hedgeLatencies != null;
+    }
+
+    static boolean isIdempotent(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "OPTIONS":
+            case "PUT":
+            case "DELETE":
+            case "TRACE":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param attempt    number of the attempt that failed, from 1
+     * @param idempotent whether the method of the request is idempotent
+     * @param replayable whether the body of the request, if any, can be sent again
+     * @return delay in milliseconds before the next attempt, or {@code -1} to give up
+     */
+    long retryDelay(IOException e, int attempt, boolean idempotent, boolean replayable) {
+        if (attempt >= maxAttempts || !replayable || e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) return -1;
+        Throwable cause = e.getCause() instanceof IOException ? e.getCause() : e;
+        boolean unreachable = cause instanceof ConnectException || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException;
+        if (!idempotent && !unreachable) return -1;
+        return backoff(attempt);
+    }
+
+    /**
+     * @param attempt    number of the attempt that received {@code response}, from 1
+     * @param idempotent whether the method of the request is idempotent
+     * @param replayable whether the body of the request, if any, can be sent again
+     * @return delay in milliseconds before the next attempt, or {@code -1} to return {@code response}
+     */
+    long retryDelay(HttpURLResponse response, int attempt, boolean idempotent, boolean replayable) {
+        int code = response.getResponseCode();
+        if (attempt >= maxAttempts || !replayable || Arrays.binarySearch(retryStatuses, code) < 0) return -1;
+        if (!idempotent && code != 429 && code != HttpURLRequest.HTTP_UNAVAILABLE) return -1;
+        long retryAfter = parseRetryAfter(response.getResponseHeader("Retry-After"));
+        if (retryAfter > maxRetryAfter) return -1;
+        return retryAfter >= 0 ? retryAfter : backoff(attempt);
+    }
+
+    private long backoff(int attempt) {
+        long bound = initialBackoff << Math.min(attempt - 1, 30);
+        if (bound < 0 || bound > maxBackoff) bound = maxBackoff;
+        return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * @return the delay of a {@code Retry-After} header given in seconds or as a date, in milliseconds, or {@code -1}
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null) return -1;
+        retryAfter = retryAfter.trim();
+        try {
+            return Math.max(0, Long.parseLong(retryAfter) * 1000);
+        } catch (NumberFormatException e) {
+            long date = HttpURLCache.parseDate(retryAfter);
+            return date < 0 ? -1 : Math.max(0, date - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return delay in milliseconds before a backup request is sent
+     */
+    long hedgeDelay() {
+        if (hedgeLatencies.getCount() < MIN_HEDGE_SAMPLES) return hedgeFallbackDelay;
+        return Math.max(1, hedgeLatencies.getPercentile(hedgePercentile) / 1_000_000);
+    }
+
+    void recordHedgeLatency(long nanos) {
+        hedgeLatencies.record(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLRetryPolicy{maxAttempts=" + maxAttempts + ", backoff=" + initialBackoff + ".." + maxBackoff
+                + "ms, retryStatuses=" + Arrays.toString(retryStatuses) + (isHedging() ? ", hedging=p" + hedgePercentile : "") + "}";
+    }
+}
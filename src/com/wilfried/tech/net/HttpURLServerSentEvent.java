@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An event received by an {@link HttpURLEventStream}.
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public final class HttpURLServerSentEvent {
+    private final String id;
+    private final String event;
+    private final String data;
+
+    HttpURLServerSentEvent(String id, String event, String data) {
+        this.id = id;
+        this.event = event;
+        this.data = data;
+    }
+
+    /**
+     * @return the last event id received on the stream when this event was dispatched, or {@code null}
+     */
+    public @Nullable String getId() {
+        return id;
+    }
+
+    /**
+     * @return the type of the event, {@code "message"} when the server gives none
+     */
+    public @NotNull String getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the data lines of the event, joined with {@code \n}
+     */
+    public @NotNull String getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpURLServerSentEvent{id=" + id + ", event=" + event + ", data=" + data + "}";
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.util.Map;
+
+/**
+ * Carries the requests of {@link HttpURLRequest} to the server.
+ * <p>
+ * Two transports are provided: {@link #urlConnection()}, built on {@link java.net.HttpURLConnection}
+ * and speaking HTTP/1.1, and {@link #http2()}, built on {@link HttpClient}, which negotiates HTTP/2
+ * (with {@code h2c} upgrade on {@code http} URLs) and multiplexes concurrent requests over one
+ * connection per host. {@link #nio()} speaks HTTP/1.1 over non-blocking sockets served by a few
+ * selector threads, for very large numbers of concurrent requests sent with
+ * {@link HttpURLRequest#sendAsync()}. The transport used by default is chosen with the system property
+ * {@value #TRANSPORT_PROPERTY}, set to {@code urlconnection} (the default), {@code http2} or {@code nio}.
+ * </p>
+ *
+ * @author Wilfried-Tech
+ * @since 1.1
+ */
+public interface HttpURLTransport extends AutoCloseable {
+    String TRANSPORT_PROPERTY = "com.wilfried.tech.net.transport";
+
+    /**
+     * start an exchange; the connection may be opened lazily, when the body or the response is needed
+     *
+     * @param method         request method
+     * @param url            request URL
+     * @param headers        request headers
+     * @param connectTimeout connect timeout in milliseconds, {@code 0} for none
+     * @param readTimeout    read timeout in milliseconds, {@code 0} for none
+     * @return the exchange
+     * @throws IOException if the exchange cannot be created
+     */
+    HttpURLExchange newExchange(String method, URL url, Map<String, String> headers, int connectTimeout, int readTimeout) throws IOException;
+
+    /**
+     * @return {@code true} if concurrent requests to a host share a connection, in which case
+     * {@link HttpURLClient} does not limit the number of connections per host
+     */
+    default boolean isMultiplexed() {
+        return false;
+    }
+
+    /**
+     * @param url request URL
+     * @return {@code true} if the transport bounds the connections carrying the requests to {@code url} itself,
+     * in which case {@link HttpURLClient} does not limit them; {@link #isMultiplexed()} by default
+     */
+    default boolean isMultiplexed(URL url) {
+        return isMultiplexed();
+    }
+
+    /**
+     * @return {@code true} if its exchanges complete {@link HttpURLExchange#whenReceived(boolean)} without
+     * a thread waiting for the response, which lets {@link HttpURLRequest#sendAsync()} hold no thread either
+     */
+    default boolean isNonBlocking() {
+        return false;
+    }
+
+    /**
+     * release the threads and connections of this transport, failing the requests in flight; the shared
+     * transports returned by {@link #urlConnection()}, {@link #http2()} and {@link #nio()} ignore it
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * @return the transport selected by the system property {@value #TRANSPORT_PROPERTY}
+     */
+    static HttpURLTransport getDefault() {
+        String transport = System.getProperty(TRANSPORT_PROPERTY, "urlconnection");
+        if (transport.equalsIgnoreCase("http2")) return http2();
+        if (transport.equalsIgnoreCase("nio")) return nio();
+        if (transport.equalsIgnoreCase("urlconnection")) return urlConnection();
+        throw new HttpURLRequestException("unknown transport in " + TRANSPORT_PROPERTY + ": " + transport);
+    }
+
+    /**
+     * @return the HTTP/1.1 transport built on {@link java.net.HttpURLConnection}
+     */
+    static HttpURLTransport urlConnection() {
+        return HttpURLConnectionTransport.INSTANCE;
+    }
+
+    /**
+     * the connect timeout of the requests is not applied, and their read timeout only bounds the wait for
+     * the response headers, not the reads of the body; their call timeout bounds both.
+     * <p>
+     * The {@code Connection}, {@code Content-Length}, {@code Expect}, {@code Host} and {@code Upgrade}
+     * request headers are set by {@link HttpClient} itself, and those set on the requests are dropped:
+     * a request cannot be routed to a virtual host other than the one of its URL. Before Java 16,
+     * {@link HttpClient} cannot cancel an exchange in progress, so aborting a request is only best
+     * effort: the call returns at once, while the exchange may run until its response is received.
+     * </p>
+     *
+     * @return a shared HTTP/2 transport built on {@link HttpClient}
+     */
+    static HttpURLTransport http2() {
+        return HttpClientTransport.SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @param httpClient the client carrying the requests; its version, proxy, SSL, redirect and connect timeout
+     *                   settings apply, in place of the connect timeout of the requests
+     * @return a transport built on {@code httpClient}, with the limits of {@link #http2()}
+     */
+    static HttpURLTransport http2(@NotNull HttpClient httpClient) {
+        return new HttpClientTransport(httpClient);
+    }
+
+    /**
+     * @return a shared HTTP/1.1 transport built on non-blocking sockets, without pipelining
+     */
+    static HttpURLTransport nio() {
+        return HttpURLNioTransport.SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @param selectorThreads       number of threads doing the I/O of all the connections
+     * @param maxConnectionsPerHost connections opened at most to a host
+     * @param pipelineDepth         idempotent requests without body sent at most on a connection before
+     *                              their responses, {@code 1} to disable pipelining
+     * @return an HTTP/1.1 transport built on non-blocking sockets, whose threads run until it is
+     * {@link #close() closed}; {@code https} URLs are carried by {@link #urlConnection()}
+     */
+    static HttpURLTransport nio(int selectorThreads, int maxConnectionsPerHost, int pipelineDepth) {
+        return new HttpURLNioTransport(selectorThreads, maxConnectionsPerHost, pipelineDepth);
+    }
+}
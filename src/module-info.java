@@ -1,3 +1,4 @@
 module com.wilfried.tech.net {
     requires org.jetbrains.annotations;
+    requires java.net.http;
 }
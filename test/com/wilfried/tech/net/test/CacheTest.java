@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.wilfried.tech.net.HttpURLCache;
+import com.wilfried.tech.net.HttpURLClient;
+import com.wilfried.tech.net.HttpURLRequest;
+import com.wilfried.tech.net.HttpURLResponse;
+import com.wilfried.tech.net.HttpURLResponseMode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * checks the freshness, revalidation and bypass rules of {@link HttpURLCache} against a local server
+ */
+public class CacheTest {
+    private static final AtomicInteger hits = new AtomicInteger();
+
+    public static void main(String[] args) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fresh", exchange -> respond(exchange, "max-age=60", "fresh"));
+        server.createContext("/stale", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                hits.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                exchange.sendResponseHeaders(HttpURLRequest.HTTP_NOT_MODIFIED, -1);
+                exchange.close();
+            } else {
+                exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                respond(exchange, "max-age=0", "stale");
+            }
+        });
+        server.start();
+        String base = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+        try {
+            checkFreshness(base);
+            checkRevalidation(base);
+            checkBypass(base);
+            System.out.println("CacheTest OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void checkFreshness(String base) throws IOException {
+        HttpURLClient client = newClient();
+        hits.set(0);
+        check(get(client, base + "/fresh").equals("fresh"), "first response");
+        check(get(client, base + "/fresh").equals("fresh"), "cached response");
+        check(hits.get() == 1, "a fresh entry is served without contacting the server, got " + hits.get() + " requests");
+        check(client.getCache().getHitCount() == 1, "one hit expected, got " + client.getCache().getHitCount());
+    }
+
+    private static void checkRevalidation(String base) throws IOException {
+        HttpURLClient client = newClient();
+        hits.set(0);
+        check(get(client, base + "/stale").equals("stale"), "first response");
+        check(get(client, base + "/stale").equals("stale"), "revalidated response");
+        check(client.getCache().getRevalidationCount() == 1, "one revalidation expected, got " + client.getCache().getRevalidationCount());
+
+        HttpURLRequest request = client.newRequest();
+        request.open("GET", base + "/stale");
+        request.setResponseMode(HttpURLResponseMode.STREAMING);
+        HttpURLResponse response = request.send();
+        check(response.getResponseCode() == HttpURLRequest.HTTP_OK, "a streamed revalidation answers the cached status");
+        check(client.getPoolStats().getLeased() == 0, "a streamed 304 releases its connection, got " + client.getPoolStats());
+        check(client.getCache().getRevalidationCount() == 2, "two revalidations expected");
+    }
+
+    private static void checkBypass(String base) throws IOException {
+        HttpURLClient client = newClient();
+        hits.set(0);
+        get(client, base + "/fresh");
+
+        HttpURLRequest range = client.newRequest();
+        range.open("GET", base + "/fresh");
+        range.setRequestHeader("Range", "bytes=0-0");
+        range.send().close();
+        check(hits.get() == 2, "a range request is not answered from the cache");
+
+        HttpURLRequest encoded = client.newRequest();
+        encoded.open("GET", base + "/fresh");
+        encoded.setContentDecoding(false);
+        encoded.send().close();
+        check(hits.get() == 3, "a request without content decoding is not answered from the cache");
+        check(client.getCache().getHitCount() == 0, "no hit expected, got " + client.getCache().getHitCount());
+    }
+
+    private static HttpURLClient newClient() {
+        HttpURLClient client = new HttpURLClient();
+        client.setCache(new HttpURLCache(1024 * 1024));
+        return client;
+    }
+
+    private static String get(HttpURLClient client, String url) throws IOException {
+        HttpURLRequest request = client.newRequest();
+        request.open("GET", url);
+        return request.send().getResponseText();
+    }
+
+    private static void respond(HttpExchange exchange, String cacheControl, String body) throws IOException {
+        hits.incrementAndGet();
+        exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+        exchange.sendResponseHeaders(HttpURLRequest.HTTP_OK, body.length());
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body.getBytes());
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net.test;
+
+import com.sun.net.httpserver.HttpServer;
+import com.wilfried.tech.net.HttpURLEventStream;
+import com.wilfried.tech.net.HttpURLRequest;
+import com.wilfried.tech.net.HttpURLServerSentEvent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * checks the parsing of {@link HttpURLEventStream} against a local server: byte order mark, multi-line
+ * {@code data}, comments, {@code id} containing NUL, and {@code retry}, whose delay is observed
+ * through the reconnection
+ */
+public class EventStreamTest {
+    private static final String STREAM = "\uFEFFdata: first\r\n"
+            + "data: second\r\n"
+            + "id: 1\r\n"
+            + "\r\n"
+            + ": a comment\n"
+            + "id: bad\0id\n"
+            + "event: custom\n"
+            + "data:no space\n"
+            + "\n"
+            + "retry: 50\n"
+            + "retry: soon\n"
+            + "\n"
+            + "data: unterminated\n";
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        List<Long> connections = new CopyOnWriteArrayList<>();
+        List<String> lastEventIds = new CopyOnWriteArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/events", exchange -> {
+            connections.add(System.nanoTime());
+            lastEventIds.add(String.valueOf(exchange.getRequestHeaders().getFirst("Last-Event-ID")));
+            if (connections.size() > 1) {
+                // ends the stream
+                exchange.sendResponseHeaders(HttpURLRequest.HTTP_NO_CONTENT, -1);
+                exchange.close();
+                return;
+            }
+            byte[] body = STREAM.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(HttpURLRequest.HTTP_OK, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        try {
+            HttpURLEventStream stream = new HttpURLEventStream("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/events");
+            List<HttpURLServerSentEvent> events = new CopyOnWriteArrayList<>();
+            stream.forEach(events::add).get(10, TimeUnit.SECONDS);
+
+            check(events.size() == 2, "two events expected, got " + events);
+            check(events.get(0).getData().equals("first\nsecond"), "multi-line data, got " + events.get(0));
+            check(events.get(0).getEvent().equals("message") && "1".equals(events.get(0).getId()), "first event type and id, got " + events.get(0));
+            check(events.get(1).getData().equals("no space") && events.get(1).getEvent().equals("custom"), "second event, got " + events.get(1));
+            check("1".equals(events.get(1).getId()), "an id containing NUL is ignored, got " + events.get(1).getId());
+            check("1".equals(stream.getLastEventId()), "last event id");
+
+            check(connections.size() == 2, "the stream reconnects once, got " + connections.size());
+            check(lastEventIds.equals(List.of("null", "1")), "Last-Event-ID sent on reconnection, got " + lastEventIds);
+            long delay = TimeUnit.NANOSECONDS.toMillis(connections.get(1) - connections.get(0));
+            check(delay < 1000, "retry: 50 replaces the default delay of " + HttpURLEventStream.DEFAULT_RECONNECT_DELAY + " ms, reconnected after " + delay + " ms");
+            System.out.println("EventStreamTest OK");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
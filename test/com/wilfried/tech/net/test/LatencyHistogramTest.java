@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2023 Wilfried-Tech.  All rights reserved.
+ */
+
+package com.wilfried.tech.net.test;
+
+import com.wilfried.tech.net.HttpURLLatencyHistogram;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * checks that the percentiles of {@link HttpURLLatencyHistogram} are never below the exact ones
+ * and at most 1/32 above them
+ */
+public class LatencyHistogramTest {
+    private static final double[] PERCENTILES = {0, 1, 10, 50, 90, 99, 99.9, 99.99, 100};
+
+    public static void main(String[] args) {
+        checkEmpty();
+        checkSmallValues();
+        checkBounds(new Random(1).longs(100_000, 0, TimeUnit.SECONDS.toNanos(10)).toArray());
+        checkBounds(new Random(2).doubles(100_000).mapToLong(x -> (long) Math.exp(x * 40)).toArray());
+        checkBounds(new long[]{1, 31, 32, 33, 63, 64, 65, 1L << 40, Long.MAX_VALUE});
+        checkNegative();
+        System.out.println("LatencyHistogramTest OK");
+    }
+
+    private static void checkEmpty() {
+        HttpURLLatencyHistogram histogram = new HttpURLLatencyHistogram();
+        check(histogram.getCount() == 0 && histogram.getP50() == 0 && histogram.getMax() == 0, "an empty histogram reports 0");
+        try {
+            histogram.getPercentile(100.1);
+            throw new AssertionError("a percentile above 100 is refused");
+        } catch (IllegalArgumentException expected) {
+            // refused
+        }
+    }
+
+    /**
+     * values below 32 have a bucket each, so their percentiles are exact
+     */
+    private static void checkSmallValues() {
+        HttpURLLatencyHistogram histogram = new HttpURLLatencyHistogram();
+        for (int i = 1; i <= 20; i++) histogram.record(i);
+        check(histogram.getP50() == 10, "p50 of 1..20 is 10, got " + histogram.getP50());
+        check(histogram.getPercentile(100) == 20, "p100 of 1..20 is 20");
+        check(histogram.getPercentile(0) == 1, "p0 of 1..20 is 1");
+        check(histogram.getMean() == 10.5, "mean of 1..20 is 10.5, got " + histogram.getMean());
+    }
+
+    private static void checkBounds(long[] values) {
+        HttpURLLatencyHistogram histogram = new HttpURLLatencyHistogram();
+        for (long value : values) histogram.record(value);
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        check(histogram.getCount() == values.length, "count");
+        check(histogram.getMax() == sorted[sorted.length - 1], "max");
+        for (double percentile : PERCENTILES) {
+            long exact = sorted[(int) Math.max(0, Math.ceil(percentile / 100 * sorted.length) - 1)];
+            long reported = histogram.getPercentile(percentile);
+            check(reported >= exact && reported - exact <= exact / 32,
+                    "p" + percentile + " reported " + reported + " for an exact value of " + exact);
+        }
+    }
+
+    private static void checkNegative() {
+        HttpURLLatencyHistogram histogram = new HttpURLLatencyHistogram();
+        histogram.record(-5);
+        check(histogram.getCount() == 1 && histogram.getMax() == 0 && histogram.getP50() == 0, "a negative value is counted as 0");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}